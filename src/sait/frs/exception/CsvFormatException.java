@@ -0,0 +1,30 @@
+package sait.frs.exception;
+
+import java.io.IOException;
+
+public class CsvFormatException extends IOException {
+
+	private String file;
+	private long lineNumber;
+	private String problem;
+
+	public CsvFormatException(String file, long lineNumber, String problem) {
+		super(String.format("Error: %s line %d: %s", file, lineNumber, problem));
+		this.file = file;
+		this.lineNumber = lineNumber;
+		this.problem = problem;
+	}
+
+	public String getFile() {
+		return file;
+	}
+
+	public long getLineNumber() {
+		return lineNumber;
+	}
+
+	public String getProblem() {
+		return problem;
+	}
+
+}
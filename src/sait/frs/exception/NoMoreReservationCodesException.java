@@ -0,0 +1,9 @@
+package sait.frs.exception;
+
+public class NoMoreReservationCodesException extends Exception {
+
+	public NoMoreReservationCodesException(char prefix) {
+		super("Error: Every reservation code starting with " + prefix + " is in use.");
+	}
+
+}
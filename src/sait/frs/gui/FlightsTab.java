@@ -200,8 +200,8 @@ public class FlightsTab extends TabBase {
 		 * Flight object, the travelers name and citizenship. An exception is thrown if
 		 * the flight is completely booked, or the flight is null, or the name is
 		 * empty/null, or the citizenship is empty/null. If there are no exceptions
-		 * thrown a Reservation object is created, saved to the binary file and returned
-		 * by the method.
+		 * thrown a Reservation object is created and queued to be saved to the binary
+		 * file. The reservation code is shown once the reservation has been saved.
 		 */
 		reserveButton.addActionListener(new ActionListener() {
 			public void actionPerformed(ActionEvent e) {
@@ -211,18 +211,23 @@ public class FlightsTab extends TabBase {
 				String citizenMake = citizenText.getText();
 
 				try {
-					manager.makeReservation(flightMake, nameMake, citizenMake);
-					//manager.persist();
-
 					Reservation revCode = manager.makeReservation(flightMake, nameMake, citizenMake);
-					JOptionPane.showMessageDialog(null, "Reservation created. Your code is " + revCode.getCode());
+					manager.whenPersisted(revCode).whenComplete((saved, error) -> SwingUtilities.invokeLater(() -> {
+						if (error == null) {
+							JOptionPane.showMessageDialog(null, "Reservation created. Your code is " + revCode.getCode());
+						} else {
+							JOptionPane.showMessageDialog(null, "Reservation " + revCode.getCode() + " could not be saved");
+						}
+					}));
 
 				} catch (NullFlightException e1) {
 					JOptionPane.showMessageDialog(null, "You do not selected flight, Please select flight first");
 				} catch (NoMoreSeatsException e1) {
 					JOptionPane.showMessageDialog(null, "The flight does not have available seat");
+				} catch (NoMoreReservationCodesException e1) {
+					JOptionPane.showMessageDialog(null, "No more reservation codes are available");
 				} catch (InvalidNameException e1) {
-					JOptionPane.showMessageDialog(null, "You do not Enter Your name");
+					JOptionPane.showMessageDialog(null, "You do not Enter vaild Your name");
 				} catch (InvalidCitizenshipException e1) {
 					JOptionPane.showMessageDialog(null, "You do not Enter vaild citizenship");
 				}
@@ -257,10 +262,7 @@ public class FlightsTab extends TabBase {
 		JPanel ci2 = new JPanel();
 		ci2.setLayout(new GridLayout(3, 1));
 
-		String[] airports = new String[manager.getAirports().size()];
-		for (int i = 0; i < airports.length; i++) {
-			airports[i] = manager.getAirports().get(i);
-		}
+		String[] airports = manager.getAirports().toArray(new String[0]);
 		JLabel from = new JLabel("From:");
 		JComboBox<String> fromComboBox = new JComboBox<String>(airports);
 		ci1.add(from);
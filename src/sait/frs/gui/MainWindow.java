@@ -78,6 +78,14 @@ public class MainWindow extends JFrame {
 
 		centerPanel = createCenterPanel();
 		getContentPane().add(centerPanel, BorderLayout.CENTER);
+
+		manager.whenReservationsLoaded().thenRun(() -> {
+			int corrupt = manager.getCorruptReservationCount();
+			if (corrupt > 0) {
+				SwingUtilities.invokeLater(() -> JOptionPane.showMessageDialog(this,
+						corrupt + " damaged reservations in the reservation file were skipped"));
+			}
+		});
 	}
 
 	/**
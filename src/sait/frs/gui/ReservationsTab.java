@@ -189,15 +189,20 @@ public class ReservationsTab extends TabBase {
 		/**
 		 * This reserve button works to the Reservation object will be called and an
 		 * error maybe displayed if an exception occurs. The persist method in the
-		 * Manager class saves all Reservation and Flight objects to a binary file on
-		 * the hard drive.
+		 * Manager class queues the selected Reservation to overwrite its record in the
+		 * binary file on the hard drive, and an error is displayed if that fails.
 		 */
 		reserve.addActionListener(new ActionListener() {
 			public void actionPerformed(ActionEvent e) {
+				if (reservationList.getSelectedValue().isRemoved()) {
+					JOptionPane.showMessageDialog(null,
+							"Reservation " + reservationList.getSelectedValue().getCode() + " has been removed");
+					return;
+				}
 				String nameMake = nameText.getText();
 
 				try {
-					reservationList.getSelectedValue().setName(nameMake);
+					manager.setName(reservationList.getSelectedValue(), nameMake);
 				} catch (InvalidNameException e1) {
 					JOptionPane.showMessageDialog(null, "You do not Enter vaild Your name");
 				}
@@ -209,12 +214,22 @@ public class ReservationsTab extends TabBase {
 					JOptionPane.showMessageDialog(null, "You do not Enter vaild citizenship");
 				}
 
-				if (statusBox.getSelectedItem().equals("Active")) {
-					reservationList.getSelectedValue().setActive(true);
-				} else if (statusBox.getSelectedItem().equals("Inactive")) {
-					reservationList.getSelectedValue().setActive(false);
+				try {
+					if (statusBox.getSelectedItem().equals("Active")) {
+						manager.setActive(reservationList.getSelectedValue(), true);
+					} else if (statusBox.getSelectedItem().equals("Inactive")) {
+						manager.setActive(reservationList.getSelectedValue(), false);
+					}
+				} catch (NoMoreSeatsException e1) {
+					JOptionPane.showMessageDialog(null, "The flight does not have available seat");
 				}
-				manager.persist();
+				Reservation updated = reservationList.getSelectedValue();
+				manager.persist(updated).whenComplete((saved, error) -> {
+					if (error != null) {
+						SwingUtilities.invokeLater(() -> JOptionPane.showMessageDialog(null,
+								"Reservation " + updated.getCode() + " could not be saved"));
+					}
+				});
 			}
 		});
 
@@ -277,7 +292,8 @@ public class ReservationsTab extends TabBase {
 		/**
 		 * This result button works to the travel agent can find existing flight
 		 * reservations using the reservation code, airline, and traveler name. The
-		 * criteria can match any combination of the three fields.
+		 * criteria can match any combination of the three fields. If the
+		 * reservations are still loading, the search runs once they are ready.
 		 */
 		result.addActionListener(new ActionListener() {
 			public void actionPerformed(ActionEvent e) {
@@ -286,11 +302,17 @@ public class ReservationsTab extends TabBase {
 				String airline = airlineText.getText();
 				String name = nameText.getText();
 
-				ArrayList<Reservation> findRev = manager.findReservations(code, airline, name);
-
-				for (int i = 0; i < findRev.size(); i++) {
-					resevationModel.addElement(findRev.get(i));
-				}
+				manager.whenReservationsLoaded().whenComplete((loaded, error) -> SwingUtilities.invokeLater(() -> {
+					if (error != null) {
+						JOptionPane.showMessageDialog(null, "Reservations could not be loaded");
+						return;
+					}
+					ArrayList<Reservation> findRev = manager.findReservations(code, airline, name);
+
+					for (int i = 0; i < findRev.size(); i++) {
+						resevationModel.addElement(findRev.get(i));
+					}
+				}));
 			}
 		});
 
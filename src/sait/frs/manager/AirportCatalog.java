@@ -0,0 +1,100 @@
+package sait.frs.manager;
+
+import java.util.*;
+
+/**
+ * Airport codes and full names.
+ *
+ * Codes map to names in a hash table for exact lookups. For autocomplete,
+ * every code and every name is kept once in a sorted array of lower case
+ * keys, each pointing back to its airport. Keys are lower-cased in the root
+ * locale so that matching does not depend on the user's locale. The keys starting with a prefix sit
+ * next to each other, so a binary search finds the first one and the matches
+ * are read until a key no longer starts with the prefix.
+ */
+public class AirportCatalog {
+
+	private List<String> codes;
+	private HashMap<String, String> names = new HashMap<String, String>();
+	private String[] keys;
+	private int[] airports;
+
+	/**
+	 * Builds the catalog.
+	 *
+	 * @param codes - Airport codes in file order
+	 * @param names - Full airport names, in the same order as the codes
+	 */
+	public AirportCatalog(List<String> codes, List<String> names) {
+		this.codes = Collections.unmodifiableList(new ArrayList<String>(codes));
+		for (int i = 0; i < codes.size(); i++) {
+			this.names.putIfAbsent(codes.get(i), names.get(i));
+		}
+
+		// Key 2 * i is the code of airport i and key 2 * i + 1 its name.
+		String[] unsorted = new String[codes.size() * 2];
+		Integer[] order = new Integer[unsorted.length];
+		for (int i = 0; i < unsorted.length; i++) {
+			unsorted[i] = (i % 2 == 0 ? codes.get(i / 2) : names.get(i / 2)).toLowerCase(Locale.ROOT);
+			order[i] = i;
+		}
+		Arrays.sort(order, Comparator.comparing(i -> unsorted[i]));
+		keys = new String[unsorted.length];
+		airports = new int[unsorted.length];
+		for (int i = 0; i < order.length; i++) {
+			keys[i] = unsorted[order[i]];
+			airports[i] = order[i] / 2;
+		}
+	}
+
+	/**
+	 * Gets the airport codes in file order.
+	 *
+	 * @return Unmodifiable List of codes, shared by every caller.
+	 */
+	public List<String> getCodes() {
+		return codes;
+	}
+
+	/**
+	 * Gets the full name of an airport.
+	 *
+	 * @param code - Airport code
+	 * @return Full name, or null if the code is not found.
+	 */
+	public String findName(String code) {
+		return names.get(code);
+	}
+
+	/**
+	 * Finds airports whose code or full name starts with some text, ignoring
+	 * case.
+	 *
+	 * @param prefix - Start of a code or name
+	 * @param count  - Most airports to return
+	 * @return ArrayList of up to count airport codes, in order of the code or
+	 *         name that matched.
+	 */
+	public ArrayList<String> complete(String prefix, int count) {
+		ArrayList<String> found = new ArrayList<String>();
+		String key = prefix == null ? "" : prefix.toLowerCase(Locale.ROOT);
+		// Only the airports found are remembered, so a lookup costs O(log n + k).
+		HashSet<Integer> seen = new HashSet<Integer>();
+		int low = 0;
+		int high = keys.length;
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (keys[middle].compareTo(key) < 0) {
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+		for (int i = low; i < keys.length && found.size() < count && keys[i].startsWith(key); i++) {
+			if (seen.add(airports[i])) {
+				found.add(codes.get(airports[i]));
+			}
+		}
+		return found;
+	}
+}
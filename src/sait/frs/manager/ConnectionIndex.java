@@ -0,0 +1,308 @@
+package sait.frs.manager;
+
+import java.util.*;
+import sait.frs.problemdomain.*;
+
+/**
+ * Finds itineraries of connecting flights.
+ *
+ * The schedule repeats every week, so each flight departs at a minute of the
+ * week. Flights are grouped by departure airport and sorted by that minute,
+ * and a connection is any flight leaving the airport between
+ * MINIMUM_CONNECTION and MAXIMUM_CONNECTION minutes after the previous
+ * flight left. The schedule has no arrival times, so connections are measured
+ * between departures.
+ *
+ * A search is a best-first walk over partial itineraries. Each one is ranked
+ * by its score so far plus a lower bound of what is left: the cheapest way to
+ * reach the destination with the legs left, worked out backwards from the
+ * destination over the cheapest flight of each route, or the shortest
+ * connections for the fewest legs left. Airports that cannot reach the
+ * destination in time are never entered. Complete itineraries come out of the
+ * walk best first, so it stops as soon as it has enough of them.
+ */
+public class ConnectionIndex {
+
+	public static final int RANK_BY_COST = 0;
+	public static final int RANK_BY_CONNECTION_TIME = 1;
+	public static final int MINIMUM_CONNECTION = 60;
+	public static final int MAXIMUM_CONNECTION = 24 * 60;
+
+	private static final int DAY = 24 * 60;
+	private static final int WEEK = 7 * DAY;
+
+	private HashMap<String, Departures> departures = new HashMap<String, Departures>();
+
+	/**
+	 * Cost of the cheapest flight of each route, by destination and then origin.
+	 */
+	private HashMap<String, HashMap<String, Double>> cheapestInto = new HashMap<String, HashMap<String, Double>>();
+
+	/**
+	 * Flights leaving one airport, sorted by minute of the week.
+	 */
+	private static class Departures {
+
+		private Flight[] flights;
+		private int[] minutes;
+	}
+
+	/**
+	 * Itinerary under construction, sharing its earlier legs with the one it
+	 * was extended from.
+	 */
+	private static class Partial {
+
+		private Partial previous;
+		private Flight leg;
+		private String airport;
+		private int legs;
+		private int departed;
+		private double cost;
+		private int connectionMinutes;
+		private double rank;
+		private double tieBreak;
+		private long sequence;
+
+		/**
+		 * Checks whether the itinerary already went through an airport.
+		 */
+		boolean visited(String airport) {
+			for (Partial step = this; step != null; step = step.previous) {
+				if (step.airport.equals(airport)) {
+					return true;
+				}
+			}
+			return false;
+		}
+
+		/**
+		 * Gets the flights from the first one on.
+		 */
+		ArrayList<Flight> flights() {
+			ArrayList<Flight> flights = new ArrayList<Flight>(legs);
+			for (Partial step = this; step.leg != null; step = step.previous) {
+				flights.add(step.leg);
+			}
+			Collections.reverse(flights);
+			return flights;
+		}
+	}
+
+	/**
+	 * Builds the index. Flights whose day or time cannot be read are left out.
+	 *
+	 * @param flights - Flights to index
+	 */
+	public ConnectionIndex(Collection<Flight> flights) {
+		HashMap<String, ArrayList<Flight>> byAirport = new HashMap<String, ArrayList<Flight>>();
+		for (Flight flight : flights) {
+			if (minuteOfWeek(flight) >= 0) {
+				byAirport.computeIfAbsent(flight.getFrom(), from -> new ArrayList<Flight>()).add(flight);
+				cheapestInto.computeIfAbsent(flight.getTo(), to -> new HashMap<String, Double>())
+						.merge(flight.getFrom(), flight.getCostPerSeat(), Math::min);
+			}
+		}
+		for (Map.Entry<String, ArrayList<Flight>> entry : byAirport.entrySet()) {
+			// Sort minute and position packed together, so each time is read once.
+			ArrayList<Flight> unsorted = entry.getValue();
+			long[] keys = new long[unsorted.size()];
+			for (int i = 0; i < keys.length; i++) {
+				keys[i] = (long) minuteOfWeek(unsorted.get(i)) << 32 | i;
+			}
+			Arrays.sort(keys);
+			Departures airport = new Departures();
+			airport.flights = new Flight[keys.length];
+			airport.minutes = new int[keys.length];
+			for (int i = 0; i < keys.length; i++) {
+				airport.flights[i] = unsorted.get((int) keys[i]);
+				airport.minutes[i] = (int) (keys[i] >>> 32);
+			}
+			departures.put(entry.getKey(), airport);
+		}
+	}
+
+	/**
+	 * Finds the best itineraries between two airports.
+	 *
+	 * @param from     - From airport
+	 * @param to       - To airport
+	 * @param weekday  - Day the first flight leaves (one of the WEEKDAY_*
+	 *                 constants of Manager), or Manager.WEEKDAY_ANY
+	 * @param maxStops - Most stops allowed, 0 for direct flights only
+	 * @param ranking  - RANK_BY_COST or RANK_BY_CONNECTION_TIME; ties are ranked
+	 *                 by the other one
+	 * @param count    - Most itineraries to return
+	 * @return ArrayList of up to count itineraries, best first.
+	 */
+	public ArrayList<Itinerary> find(String from, String to, String weekday, int maxStops, int ranking, int count) {
+		ArrayList<Itinerary> found = new ArrayList<Itinerary>();
+		Departures origin = departures.get(from);
+		if (origin == null || from.equals(to) || maxStops < 0 || count <= 0) {
+			return found;
+		}
+		int maxLegs = maxStops + 1;
+		HashMap<String, double[]> bounds = costBounds(to, maxLegs);
+		if (!bounds.containsKey(from)) {
+			return found;
+		}
+
+		PriorityQueue<Partial> open = new PriorityQueue<Partial>(
+				Comparator.comparingDouble((Partial partial) -> partial.rank)
+						.thenComparingDouble(partial -> partial.tieBreak).thenComparingLong(partial -> partial.sequence));
+		Partial start = new Partial();
+		start.airport = from;
+		long[] sequence = { 0 };
+
+		int day = Manager.WEEKDAYS.indexOf(weekday);
+		int first = weekday.equals(Manager.WEEKDAY_ANY) ? 0 : day * DAY;
+		int length = weekday.equals(Manager.WEEKDAY_ANY) ? WEEK : day < 0 ? 0 : DAY;
+		extend(start, origin, first, length, maxLegs, ranking, bounds, open, sequence);
+
+		while (!open.isEmpty() && found.size() < count) {
+			Partial partial = open.poll();
+			if (partial.airport.equals(to)) {
+				found.add(new Itinerary(partial.flights(), partial.connectionMinutes));
+			} else if (partial.legs < maxLegs) {
+				Departures next = departures.get(partial.airport);
+				if (next != null) {
+					extend(partial, next, partial.departed + MINIMUM_CONNECTION,
+							MAXIMUM_CONNECTION - MINIMUM_CONNECTION + 1, maxLegs, ranking, bounds, open, sequence);
+				}
+			}
+		}
+		return found;
+	}
+
+	/**
+	 * Adds every flight leaving in a window of the week to a partial
+	 * itinerary, keeping those that can still reach the destination.
+	 */
+	private void extend(Partial partial, Departures airport, int first, int length, int maxLegs, int ranking,
+			HashMap<String, double[]> bounds, PriorityQueue<Partial> open, long[] sequence) {
+		if (length <= 0) {
+			return;
+		}
+		first %= WEEK;
+		int last = first + length;
+		int legsLeft = maxLegs - partial.legs - 1;
+		int i = lowerBound(airport.minutes, first);
+		for (int scanned = 0; scanned < airport.minutes.length; scanned++, i++) {
+			if (i == airport.minutes.length) {
+				if (last <= WEEK) {
+					break;
+				}
+				i = 0;
+				first -= WEEK;
+				last -= WEEK;
+			}
+			if (airport.minutes[i] >= last) {
+				break;
+			}
+
+			Flight flight = airport.flights[i];
+			double[] bound = bounds.get(flight.getTo());
+			if (bound == null || bound[legsLeft] == Double.POSITIVE_INFINITY || partial.visited(flight.getTo())) {
+				continue;
+			}
+			Partial next = new Partial();
+			next.previous = partial;
+			next.leg = flight;
+			next.airport = flight.getTo();
+			next.legs = partial.legs + 1;
+			next.departed = airport.minutes[i];
+			next.cost = partial.cost + flight.getCostPerSeat();
+			next.connectionMinutes = partial.connectionMinutes;
+			if (partial.leg != null) {
+				next.connectionMinutes += Math.floorMod(next.departed - partial.departed, WEEK);
+			}
+			int legsToGo = legsNeeded(bound);
+			double costToGo = bound[legsLeft];
+			if (ranking == RANK_BY_COST) {
+				next.rank = next.cost + costToGo;
+				next.tieBreak = next.connectionMinutes;
+			} else {
+				next.rank = next.connectionMinutes + legsToGo * MINIMUM_CONNECTION;
+				next.tieBreak = next.cost + costToGo;
+			}
+			next.sequence = sequence[0]++;
+			open.add(next);
+		}
+	}
+
+	/**
+	 * Works out, for every airport that can reach the destination, the lowest
+	 * cost of getting there with at most 0, 1, ... maxLegs flights.
+	 *
+	 * @return Lower bounds by airport, indexed by legs left.
+	 */
+	private HashMap<String, double[]> costBounds(String to, int maxLegs) {
+		HashMap<String, double[]> bounds = new HashMap<String, double[]>();
+		double[] destination = new double[maxLegs + 1];
+		bounds.put(to, destination);
+		ArrayList<String> reached = new ArrayList<String>(List.of(to));
+		for (int legs = 1; legs <= maxLegs; legs++) {
+			for (double[] bound : bounds.values()) {
+				bound[legs] = bound[legs - 1];
+			}
+			ArrayList<String> changed = new ArrayList<String>();
+			for (String airport : reached) {
+				HashMap<String, Double> into = cheapestInto.get(airport);
+				if (into == null) {
+					continue;
+				}
+				double after = bounds.get(airport)[legs - 1];
+				for (Map.Entry<String, Double> route : into.entrySet()) {
+					double[] bound = bounds.get(route.getKey());
+					if (bound == null) {
+						bound = new double[maxLegs + 1];
+						Arrays.fill(bound, Double.POSITIVE_INFINITY);
+						bounds.put(route.getKey(), bound);
+					}
+					if (route.getValue() + after < bound[legs]) {
+						bound[legs] = route.getValue() + after;
+						changed.add(route.getKey());
+					}
+				}
+			}
+			reached = changed;
+		}
+		return bounds;
+	}
+
+	/**
+	 * Gets the fewest flights left to reach the destination from an airport.
+	 */
+	private static int legsNeeded(double[] bound) {
+		int legs = 0;
+		while (bound[legs] == Double.POSITIVE_INFINITY) {
+			++legs;
+		}
+		return legs;
+	}
+
+	/**
+	 * Gets the index of the first minute at or after a minute.
+	 */
+	private static int lowerBound(int[] minutes, int minute) {
+		int at = Arrays.binarySearch(minutes, minute);
+		if (at < 0) {
+			return -at - 1;
+		}
+		while (at > 0 && minutes[at - 1] == minute) {
+			--at;
+		}
+		return at;
+	}
+
+	/**
+	 * Gets the minute of the week a flight leaves, counting from Sunday 0:00.
+	 *
+	 * @return Minute of the week, or -1 if the day or time cannot be read.
+	 */
+	static int minuteOfWeek(Flight flight) {
+		int day = Manager.WEEKDAYS.indexOf(flight.getWeekday());
+		int minutes = flight.getDepartureMinutes();
+		return day < 0 || minutes < 0 ? -1 : day * DAY + minutes;
+	}
+}
@@ -0,0 +1,390 @@
+package sait.frs.manager;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import sait.frs.exception.*;
+
+/**
+ * Streaming reader for comma separated files.
+ *
+ * The file is read through one byte buffer that is reused for every line.
+ * A line is split by recording where its fields start and end, and the
+ * handler reads the fields it needs straight from the buffer: numbers are
+ * parsed from the bytes and strings are only created when asked for. Fields
+ * are not quoted. Blank lines are skipped and a line may end in \r\n or \n.
+ */
+public class CsvReader {
+
+	private static final int BUFFER_SIZE = 64 * 1024;
+	private static final int SHARED_STRINGS_LIMIT = 1 << 16;
+
+	/**
+	 * Receives every line of the file.
+	 */
+	public interface RowHandler {
+
+		/**
+		 * Called once per line. The row is only valid during the call.
+		 *
+		 * @param row - Fields of the line
+		 * @throws IOException Thrown to stop reading, such as a CsvFormatException
+		 *                     for a malformed row.
+		 */
+		void row(Row row) throws IOException;
+	}
+
+	private String name;
+	private byte[] data = new byte[BUFFER_SIZE];
+	private int[] fieldStart = new int[16];
+	private int[] fieldEnd = new int[16];
+	private int fieldCount;
+	private long lineNumber;
+	private Row row = new Row();
+
+	/**
+	 * Strings handed out by Row.getShared, in an open addressing table.
+	 */
+	private String[] shared = new String[64];
+	private int sharedCount;
+
+	/**
+	 * Reads every line of a file.
+	 *
+	 * @param path    - Location of the file
+	 * @param handler - Receives each line
+	 * @throws IOException Thrown when the file could not be read or the handler
+	 *                     rejects a line.
+	 */
+	public static void read(String path, RowHandler handler) throws IOException {
+		try (FileChannel channel = FileChannel.open(Paths.get(path), StandardOpenOption.READ)) {
+			new CsvReader(path).read(channel, 0, channel.size(), 1, handler);
+		}
+	}
+
+	/**
+	 * Creates a reader.
+	 *
+	 * @param name - File name used in error messages
+	 */
+	public CsvReader(String name) {
+		this.name = name;
+	}
+
+	/**
+	 * Reads the lines between two byte positions of a file. The range should
+	 * start at the beginning of a line and end just after a line break or at
+	 * the end of the file.
+	 *
+	 * @param channel   - Open file
+	 * @param start     - Position of the first byte to read
+	 * @param end       - Position after the last byte to read
+	 * @param firstLine - Line number of the first line in the range
+	 * @param handler   - Receives each line
+	 * @throws IOException Thrown when the file could not be read or the handler
+	 *                     rejects a line.
+	 */
+	public void read(FileChannel channel, long start, long end, long firstLine, RowHandler handler)
+			throws IOException {
+		long position = start;
+		int length = 0;
+		int next = 0;
+		lineNumber = firstLine;
+
+		while (true) {
+			int lineEnd = indexOf((byte) '\n', next, length);
+			if (lineEnd >= 0) {
+				parseLine(next, lineEnd, handler);
+				next = lineEnd + 1;
+				continue;
+			}
+			if (position >= end) {
+				if (next < length) {
+					parseLine(next, length, handler);
+				}
+				return;
+			}
+
+			// Move the unfinished line to the front and read more after it.
+			System.arraycopy(data, next, data, 0, length - next);
+			length -= next;
+			next = 0;
+			if (length == data.length) {
+				data = Arrays.copyOf(data, data.length * 2);
+			}
+			ByteBuffer buffer = ByteBuffer.wrap(data, length, (int) Math.min(data.length - length, end - position));
+			int read = channel.read(buffer, position);
+			if (read < 0) {
+				end = position;
+			} else {
+				position += read;
+				length += read;
+			}
+		}
+	}
+
+	/**
+	 * Splits one line into fields and passes it to the handler.
+	 */
+	private void parseLine(int start, int end, RowHandler handler) throws IOException {
+		if (end > start && data[end - 1] == '\r') {
+			--end;
+		}
+		if (end > start) {
+			fieldCount = 0;
+			int fieldBegin = start;
+			for (int i = start; i <= end; i++) {
+				if (i == end || data[i] == ',') {
+					if (fieldCount == fieldStart.length) {
+						fieldStart = Arrays.copyOf(fieldStart, fieldCount * 2);
+						fieldEnd = Arrays.copyOf(fieldEnd, fieldCount * 2);
+					}
+					fieldStart[fieldCount] = fieldBegin;
+					fieldEnd[fieldCount] = i;
+					++fieldCount;
+					fieldBegin = i + 1;
+				}
+			}
+			handler.row(row);
+		}
+		++lineNumber;
+	}
+
+	/**
+	 * Finds a byte between two positions of the buffer.
+	 */
+	private int indexOf(byte value, int from, int to) {
+		for (int i = from; i < to; i++) {
+			if (data[i] == value) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * The fields of the current line.
+	 */
+	public class Row {
+
+		/**
+		 * Gets the line number of the row, starting at 1.
+		 *
+		 * @return Line number
+		 */
+		public long getLineNumber() {
+			return lineNumber;
+		}
+
+		/**
+		 * Gets the number of fields in the row.
+		 *
+		 * @return Number of fields
+		 */
+		public int getFieldCount() {
+			return fieldCount;
+		}
+
+		/**
+		 * Checks that the row has at least a number of fields.
+		 *
+		 * @param count - Number of fields needed
+		 * @throws CsvFormatException Thrown if the row has fewer fields.
+		 */
+		public void requireFields(int count) throws CsvFormatException {
+			if (fieldCount < count) {
+				throw error(String.format("expected %d fields but found %d", count, fieldCount));
+			}
+		}
+
+		/**
+		 * Gets a field as a new string.
+		 *
+		 * @param field - Field index
+		 * @return Field text
+		 */
+		public String getString(int field) {
+			return new String(data, fieldStart[field], fieldEnd[field] - fieldStart[field], StandardCharsets.UTF_8);
+		}
+
+		/**
+		 * Gets a field as a string shared with every other row holding the same
+		 * text. Meant for fields with few distinct values, such as airport codes
+		 * and weekdays, so that they are only allocated once.
+		 *
+		 * @param field - Field index
+		 * @return Field text
+		 */
+		public String getShared(int field) {
+			int start = fieldStart[field];
+			int end = fieldEnd[field];
+			int hash = 0;
+			for (int i = start; i < end; i++) {
+				if (data[i] < 0) {
+					return getString(field);
+				}
+				hash = 31 * hash + data[i];
+			}
+
+			int mask = shared.length - 1;
+			int slot = hash & mask;
+			while (shared[slot] != null) {
+				if (matches(shared[slot], start, end)) {
+					return shared[slot];
+				}
+				slot = (slot + 1) & mask;
+			}
+			String value = getString(field);
+			if (sharedCount < SHARED_STRINGS_LIMIT) {
+				shared[slot] = value;
+				if (++sharedCount * 2 > shared.length) {
+					rehashShared();
+				}
+			}
+			return value;
+		}
+
+		/**
+		 * Checks whether a field starts with some text.
+		 *
+		 * @param field  - Field index
+		 * @param prefix - ASCII text
+		 * @return True if the field starts with the prefix.
+		 */
+		public boolean startsWith(int field, String prefix) {
+			int start = fieldStart[field];
+			if (fieldEnd[field] - start < prefix.length()) {
+				return false;
+			}
+			return matches(prefix, start, start + prefix.length());
+		}
+
+		/**
+		 * Parses a field as a whole number.
+		 *
+		 * @param field - Field index
+		 * @return Value of the field
+		 * @throws CsvFormatException Thrown if the field is not a whole number.
+		 */
+		public int getInt(int field) throws CsvFormatException {
+			int i = fieldStart[field];
+			int end = fieldEnd[field];
+			boolean negative = i < end && data[i] == '-';
+			if (negative) {
+				++i;
+			}
+			if (i == end) {
+				throw error(String.format("field %d is not a number", field + 1));
+			}
+			long value = 0;
+			for (; i < end; i++) {
+				int digit = data[i] - '0';
+				if (digit < 0 || digit > 9 || value > Integer.MAX_VALUE) {
+					throw error(String.format("field %d is not a whole number: %s", field + 1, getString(field)));
+				}
+				value = value * 10 + digit;
+			}
+			value = negative ? -value : value;
+			if (value > Integer.MAX_VALUE || value < Integer.MIN_VALUE) {
+				throw error(String.format("field %d is out of range: %s", field + 1, getString(field)));
+			}
+			return (int) value;
+		}
+
+		/**
+		 * Parses a field as a decimal number such as 501.00.
+		 *
+		 * @param field - Field index
+		 * @return Value of the field
+		 * @throws CsvFormatException Thrown if the field is not a decimal number.
+		 */
+		public double getDecimal(int field) throws CsvFormatException {
+			int i = fieldStart[field];
+			int end = fieldEnd[field];
+			boolean negative = i < end && data[i] == '-';
+			if (negative) {
+				++i;
+			}
+			long digits = 0;
+			int scale = -1;
+			int count = 0;
+			for (; i < end; i++) {
+				if (data[i] == '.' && scale < 0) {
+					scale = 0;
+					continue;
+				}
+				int digit = data[i] - '0';
+				if (digit < 0 || digit > 9 || count == 18) {
+					return parseDecimal(field);
+				}
+				digits = digits * 10 + digit;
+				++count;
+				if (scale >= 0) {
+					++scale;
+				}
+			}
+			if (count == 0) {
+				throw error(String.format("field %d is not a number", field + 1));
+			}
+			double value = scale > 0 ? digits / Math.pow(10, scale) : digits;
+			return negative ? -value : value;
+		}
+
+		/**
+		 * Builds an error for this row.
+		 *
+		 * @param message - What is wrong with the row
+		 * @return CsvFormatException with the file name and line number.
+		 */
+		public CsvFormatException error(String message) {
+			return new CsvFormatException(name, lineNumber, message);
+		}
+
+		/**
+		 * Parses a decimal the slow way, for exponents and very long numbers.
+		 */
+		private double parseDecimal(int field) throws CsvFormatException {
+			try {
+				return Double.parseDouble(getString(field));
+			} catch (NumberFormatException e) {
+				throw error(String.format("field %d is not a number: %s", field + 1, getString(field)));
+			}
+		}
+
+		/**
+		 * Compares ASCII text with bytes of the buffer.
+		 */
+		private boolean matches(String text, int start, int end) {
+			if (text.length() != end - start) {
+				return false;
+			}
+			for (int i = start; i < end; i++) {
+				if (text.charAt(i - start) != data[i]) {
+					return false;
+				}
+			}
+			return true;
+		}
+	}
+
+	/**
+	 * Doubles the shared string table.
+	 */
+	private void rehashShared() {
+		String[] old = shared;
+		shared = new String[old.length * 2];
+		int mask = shared.length - 1;
+		for (String value : old) {
+			if (value != null) {
+				int slot = value.hashCode() & mask;
+				while (shared[slot] != null) {
+					slot = (slot + 1) & mask;
+				}
+				shared[slot] = value;
+			}
+		}
+	}
+}
@@ -0,0 +1,128 @@
+package sait.frs.manager;
+
+import java.util.*;
+import sait.frs.problemdomain.*;
+
+/**
+ * Flights sorted by cost per seat, by origin airport and weekday.
+ *
+ * Each origin and weekday has its flights in one array sorted by cost, equal
+ * costs in file order. A price range starts with a binary search for its
+ * lowest cost. Searches over several weekdays merge their arrays through a
+ * heap holding one position per weekday, always taking the cheapest next
+ * flight, so results come out sorted without sorting them and a search for
+ * the K cheapest stops after K matches instead of collecting every flight.
+ */
+public class FareIndex {
+
+	private HashMap<String, HashMap<String, Flight[]>> fares = new HashMap<String, HashMap<String, Flight[]>>();
+
+	/**
+	 * Position in the sorted flights of one weekday.
+	 */
+	private static class Cursor {
+
+		private Flight[] flights;
+		private int next;
+		private int weekday;
+
+		Cursor(Flight[] flights, int next, int weekday) {
+			this.flights = flights;
+			this.next = next;
+			this.weekday = weekday;
+		}
+
+		double cost() {
+			return flights[next].getCostPerSeat();
+		}
+	}
+
+	/**
+	 * Builds the index.
+	 *
+	 * @param flights - Flights to index
+	 */
+	public FareIndex(Collection<Flight> flights) {
+		HashMap<String, HashMap<String, ArrayList<Flight>>> grouped = new HashMap<String, HashMap<String, ArrayList<Flight>>>();
+		for (Flight flight : flights) {
+			grouped.computeIfAbsent(flight.getFrom(), from -> new HashMap<String, ArrayList<Flight>>())
+					.computeIfAbsent(flight.getWeekday(), weekday -> new ArrayList<Flight>()).add(flight);
+		}
+		for (Map.Entry<String, HashMap<String, ArrayList<Flight>>> origin : grouped.entrySet()) {
+			HashMap<String, Flight[]> weekdays = new HashMap<String, Flight[]>();
+			for (Map.Entry<String, ArrayList<Flight>> weekday : origin.getValue().entrySet()) {
+				Flight[] sorted = weekday.getValue().toArray(new Flight[0]);
+				Arrays.sort(sorted, Comparator.comparingDouble(Flight::getCostPerSeat));
+				weekdays.put(weekday.getKey(), sorted);
+			}
+			fares.put(origin.getKey(), weekdays);
+		}
+	}
+
+	/**
+	 * Finds the cheapest flights leaving an airport within a price range.
+	 *
+	 * @param from         - From airport
+	 * @param weekday      - Day of week or Manager.WEEKDAY_ANY for every day
+	 * @param destinations - Airports to fly to, or null for any airport
+	 * @param minCost      - Lowest cost per seat
+	 * @param maxCost      - Highest cost per seat
+	 * @param count        - Most flights to return
+	 * @return ArrayList of up to count flights sorted by cost. Flights of the
+	 *         same cost are in weekday order from Sunday, then in file order.
+	 */
+	public ArrayList<Flight> find(String from, String weekday, Collection<String> destinations, double minCost,
+			double maxCost, int count) {
+		ArrayList<Flight> found = new ArrayList<Flight>();
+		HashMap<String, Flight[]> weekdays = fares.get(from);
+		if (weekdays == null || count <= 0) {
+			return found;
+		}
+		Set<String> to = destinations == null ? null : new HashSet<String>(destinations);
+
+		PriorityQueue<Cursor> cheapest = new PriorityQueue<Cursor>(
+				Comparator.comparingDouble(Cursor::cost).thenComparingInt(cursor -> cursor.weekday));
+		List<String> days = weekday.equals(Manager.WEEKDAY_ANY) ? Manager.WEEKDAYS : List.of(weekday);
+		for (int day = 0; day < days.size(); day++) {
+			Flight[] sorted = weekdays.get(days.get(day));
+			if (sorted != null) {
+				int first = firstCostingAtLeast(sorted, minCost);
+				if (first < sorted.length) {
+					cheapest.add(new Cursor(sorted, first, day));
+				}
+			}
+		}
+
+		while (!cheapest.isEmpty() && found.size() < count) {
+			Cursor cursor = cheapest.poll();
+			Flight flight = cursor.flights[cursor.next];
+			if (flight.getCostPerSeat() > maxCost) {
+				break;
+			}
+			if (to == null || to.contains(flight.getTo())) {
+				found.add(flight);
+			}
+			if (++cursor.next < cursor.flights.length) {
+				cheapest.add(cursor);
+			}
+		}
+		return found;
+	}
+
+	/**
+	 * Gets the index of the first flight costing at least some amount.
+	 */
+	private static int firstCostingAtLeast(Flight[] sorted, double cost) {
+		int low = 0;
+		int high = sorted.length;
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (sorted[middle].getCostPerSeat() < cost) {
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+		return low;
+	}
+}
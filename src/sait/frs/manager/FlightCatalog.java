@@ -0,0 +1,399 @@
+package sait.frs.manager;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.zip.CRC32;
+import sait.frs.exception.*;
+import sait.frs.problemdomain.*;
+
+/**
+ * The airports and flights read from airports.csv and flights.csv.
+ *
+ * Parsing the CSV files is slow for a large schedule, so the parsed catalog
+ * is compiled into a binary snapshot. Every string in the snapshot is stored
+ * once in a dictionary and referred to by its index, and the snapshot records
+ * the size, last modified time and CRC32 of both CSV files it was compiled
+ * from. open() loads the snapshot with one bulk read and only parses the CSV
+ * files when they no longer match. A CSV file is only read to compute its
+ * CRC32 when its size matches but its time does not, for instance after it
+ * was copied.
+ */
+public class FlightCatalog {
+
+	public static final int MAGIC = 0x46525343;
+	public static final short VERSION = 1;
+
+	/**
+	 * Code, airline, from, to, weekday and time dictionary indexes, seats and
+	 * cost.
+	 */
+	private static final int FLIGHT_SIZE = 6 * 4 + 4 + 8;
+
+	/**
+	 * A CSV file a snapshot is compiled from. Its CRC32 is computed the first
+	 * time it is needed.
+	 */
+	private static class Source {
+
+		private Path path;
+		private long size;
+		private long modified;
+		private Integer crc;
+
+		private Source(String path) throws IOException {
+			this.path = Paths.get(path);
+			this.size = Files.size(this.path);
+			this.modified = Files.getLastModifiedTime(this.path).toMillis();
+		}
+
+		private int crc() throws IOException {
+			if (crc == null) {
+				crc = checksum(path);
+			}
+			return crc;
+		}
+
+		/**
+		 * Checks if the file is the one a snapshot was compiled from, reading
+		 * it only if the sizes match and the times do not.
+		 */
+		private boolean matches(long size, long modified, int crc) throws IOException {
+			return this.size == size && (this.modified == modified || crc() == crc);
+		}
+
+		/**
+		 * Checks if the snapshot recorded another time for the same file.
+		 */
+		private boolean isTouched(long modified) {
+			return this.modified != modified;
+		}
+	}
+
+	private ArrayList<String> airportCodes = new ArrayList<String>();
+	private ArrayList<String> airportNames = new ArrayList<String>();
+	private ArrayList<Flight> flights = new ArrayList<Flight>();
+
+	/**
+	 * Loads the catalog from its snapshot, compiling a new snapshot first if the
+	 * snapshot is missing, damaged or older than the CSV files.
+	 *
+	 * @param flightsPath  - Location of flights.csv
+	 * @param airportsPath - Location of airports.csv
+	 * @param catalogPath  - Location of the snapshot
+	 * @param parallel     - True to parse flights.csv on several threads
+	 * @return Loaded FlightCatalog.
+	 * @throws IOException Thrown when the CSV files could not be read.
+	 */
+	public static FlightCatalog open(String flightsPath, String airportsPath, String catalogPath,
+			boolean parallel) throws IOException {
+		Source flightsCsv = new Source(flightsPath);
+		Source airportsCsv = new Source(airportsPath);
+
+		boolean[] touched = { false };
+		FlightCatalog catalog = null;
+		try {
+			catalog = load(catalogPath, flightsCsv, airportsCsv, touched);
+		} catch (IOException | RuntimeException e) {
+			// A damaged snapshot is compiled again from the CSV files below.
+		}
+		if (catalog != null && !touched[0]) {
+			return catalog;
+		}
+
+		// Save a new snapshot, or record the new times of unchanged files.
+		if (catalog == null) {
+			catalog = compile(flightsPath, airportsPath, parallel);
+		}
+		try {
+			catalog.save(catalogPath, flightsCsv, airportsCsv);
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		return catalog;
+	}
+
+	/**
+	 * Parses the CSV files. In parallel, flights.csv is split into ranges on
+	 * line boundaries that are parsed on the common ForkJoinPool, and the
+	 * flights keep their file order.
+	 *
+	 * @param flightsPath  - Location of flights.csv
+	 * @param airportsPath - Location of airports.csv
+	 * @param parallel     - True to parse flights.csv on several threads
+	 * @return Parsed FlightCatalog.
+	 * @throws IOException Thrown when the files could not be read.
+	 */
+	public static FlightCatalog compile(String flightsPath, String airportsPath, boolean parallel)
+			throws IOException {
+		FlightCatalog catalog = readAirports(airportsPath);
+
+		if (parallel) {
+			catalog.flights = ParallelCsvReader.read(flightsPath, FlightCatalog::parseFlight, ForkJoinPool.commonPool());
+		} else {
+			CsvReader.read(flightsPath, row -> catalog.flights.add(parseFlight(row)));
+		}
+
+		return catalog;
+	}
+
+	/**
+	 * Parses airports.csv only. The airport file is small, so this is quicker
+	 * than opening the whole catalog when only the airports are needed.
+	 *
+	 * @param airportsPath - Location of airports.csv
+	 * @return FlightCatalog holding the airports and no flights.
+	 * @throws IOException Thrown when the file could not be read.
+	 */
+	public static FlightCatalog readAirports(String airportsPath) throws IOException {
+		FlightCatalog catalog = new FlightCatalog();
+		CsvReader.read(airportsPath, row -> {
+			row.requireFields(2);
+			catalog.airportCodes.add(row.getShared(0));
+			catalog.airportNames.add(row.getString(1));
+		});
+		return catalog;
+	}
+
+	/**
+	 * Parses one line of flights.csv:
+	 * Flight Code,Departing Airport Code,Arrival Airport Code,Weekday,Time,Seats,Cost Per Seat
+	 *
+	 * @param row - Line of flights.csv
+	 * @return Flight on the line.
+	 * @throws CsvFormatException Thrown if the line is malformed.
+	 */
+	public static Flight parseFlight(CsvReader.Row row) throws CsvFormatException {
+		row.requireFields(7);
+		String code = row.getString(0);
+		String from = row.getShared(1);
+		String to = row.getShared(2);
+		String weekday = row.getShared(3);
+		String time = row.getShared(4);
+		int seats = row.getInt(5);
+		double costPerSeat = row.getDecimal(6);
+
+		return new Flight(code, airlineOf(code), from, to, weekday, time, seats, costPerSeat);
+	}
+
+	/**
+	 * Gets the full name of the airline operating a flight.
+	 *
+	 * @param code - Flight code
+	 * @return Name of airline
+	 */
+	public static String airlineOf(String code) {
+		if (code.startsWith("OA")) {
+			return "Otto Airlines";
+		} else if (code.startsWith("CA")) {
+			return "Conned Air";
+		} else if (code.startsWith("TB")) {
+			return "Try a Bus Airways";
+		} else if (code.startsWith("VA")) {
+			return "Verical Airways";
+		} else {
+			return "Unidentified Flying Object";
+		}
+	}
+
+	/**
+	 * Gets the airport codes in file order.
+	 *
+	 * @return ArrayList of airport codes.
+	 */
+	public ArrayList<String> getAirportCodes() {
+		return airportCodes;
+	}
+
+	/**
+	 * Gets the full airport names, in the same order as the codes.
+	 *
+	 * @return ArrayList of airport names.
+	 */
+	public ArrayList<String> getAirportNames() {
+		return airportNames;
+	}
+
+	/**
+	 * Gets the flights in file order.
+	 *
+	 * @return ArrayList of Flight.
+	 */
+	public ArrayList<Flight> getFlights() {
+		return flights;
+	}
+
+	/**
+	 * Writes the catalog to a snapshot file. The snapshot is written to a
+	 * temporary file and renamed over the old one.
+	 *
+	 * @param path        - Location of the snapshot
+	 * @param flightsCsv  - flights.csv the catalog was compiled from
+	 * @param airportsCsv - airports.csv the catalog was compiled from
+	 * @throws IOException Thrown when the snapshot could not be written.
+	 */
+	private void save(String path, Source flightsCsv, Source airportsCsv) throws IOException {
+		LinkedHashMap<String, Integer> dictionary = new LinkedHashMap<String, Integer>();
+		for (int i = 0; i < airportCodes.size(); i++) {
+			intern(dictionary, airportCodes.get(i));
+			intern(dictionary, airportNames.get(i));
+		}
+		for (Flight flight : flights) {
+			intern(dictionary, flight.getCode());
+			intern(dictionary, flight.getAirlineName());
+			intern(dictionary, flight.getFrom());
+			intern(dictionary, flight.getTo());
+			intern(dictionary, flight.getWeekday());
+			intern(dictionary, flight.getTime());
+		}
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		out.writeInt(MAGIC);
+		out.writeShort(VERSION);
+		for (Source source : List.of(flightsCsv, airportsCsv)) {
+			out.writeLong(source.size);
+			out.writeLong(source.modified);
+			out.writeInt(source.crc());
+		}
+
+		out.writeInt(dictionary.size());
+		for (String value : dictionary.keySet()) {
+			byte[] encoded = value.getBytes(StandardCharsets.UTF_8);
+			out.writeShort(encoded.length);
+			out.write(encoded);
+		}
+
+		out.writeInt(airportCodes.size());
+		for (int i = 0; i < airportCodes.size(); i++) {
+			out.writeInt(dictionary.get(airportCodes.get(i)));
+			out.writeInt(dictionary.get(airportNames.get(i)));
+		}
+
+		out.writeInt(flights.size());
+		for (Flight flight : flights) {
+			out.writeInt(dictionary.get(flight.getCode()));
+			out.writeInt(dictionary.get(flight.getAirlineName()));
+			out.writeInt(dictionary.get(flight.getFrom()));
+			out.writeInt(dictionary.get(flight.getTo()));
+			out.writeInt(dictionary.get(flight.getWeekday()));
+			out.writeInt(dictionary.get(flight.getTime()));
+			out.writeInt(flight.getSeats());
+			out.writeDouble(flight.getCostPerSeat());
+		}
+
+		CRC32 crc = new CRC32();
+		crc.update(bytes.toByteArray());
+		out.writeInt((int) crc.getValue());
+		out.flush();
+
+		Path target = Paths.get(path);
+		Path temp = Paths.get(path + ".tmp");
+		Files.write(temp, bytes.toByteArray());
+		Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * Reads a snapshot with one bulk read.
+	 *
+	 * @param touched - Set to true if a CSV file matched by its CRC32 only, so
+	 *                the snapshot should be saved again with its new time
+	 * @return Loaded FlightCatalog or null if the snapshot is missing or was
+	 *         compiled from other CSV files.
+	 */
+	private static FlightCatalog load(String path, Source flightsCsv, Source airportsCsv, boolean[] touched)
+			throws IOException {
+		Path file = Paths.get(path);
+		if (!Files.exists(file)) {
+			return null;
+		}
+		ByteBuffer buffer;
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			buffer = ByteBuffer.allocate((int) channel.size());
+			while (buffer.hasRemaining()) {
+				if (channel.read(buffer) < 0) {
+					throw new EOFException(path);
+				}
+			}
+		}
+		buffer.flip();
+
+		if (buffer.getInt() != MAGIC || buffer.getShort() != VERSION) {
+			return null;
+		}
+		for (Source source : List.of(flightsCsv, airportsCsv)) {
+			long size = buffer.getLong();
+			long modified = buffer.getLong();
+			if (!source.matches(size, modified, buffer.getInt())) {
+				return null;
+			}
+			touched[0] |= source.isTouched(modified);
+		}
+		CRC32 crc = new CRC32();
+		crc.update(buffer.array(), 0, buffer.limit() - 4);
+		if (buffer.getInt(buffer.limit() - 4) != (int) crc.getValue()) {
+			throw new IOException("checksum mismatch");
+		}
+
+		String[] dictionary = new String[buffer.getInt()];
+		for (int i = 0; i < dictionary.length; i++) {
+			int length = buffer.getShort() & 0xFFFF;
+			dictionary[i] = new String(buffer.array(), buffer.position(), length, StandardCharsets.UTF_8);
+			buffer.position(buffer.position() + length);
+		}
+
+		FlightCatalog catalog = new FlightCatalog();
+		int airports = buffer.getInt();
+		for (int i = 0; i < airports; i++) {
+			catalog.airportCodes.add(dictionary[buffer.getInt()]);
+			catalog.airportNames.add(dictionary[buffer.getInt()]);
+		}
+
+		int flights = buffer.getInt();
+		if (buffer.remaining() != (long) flights * FLIGHT_SIZE + 4) {
+			throw new IOException("wrong number of flights");
+		}
+		catalog.flights.ensureCapacity(flights);
+		for (int i = 0; i < flights; i++) {
+			String code = dictionary[buffer.getInt()];
+			String airline = dictionary[buffer.getInt()];
+			String from = dictionary[buffer.getInt()];
+			String to = dictionary[buffer.getInt()];
+			String weekday = dictionary[buffer.getInt()];
+			String time = dictionary[buffer.getInt()];
+			int seats = buffer.getInt();
+			double costPerSeat = buffer.getDouble();
+			catalog.flights.add(new Flight(code, airline, from, to, weekday, time, seats, costPerSeat));
+		}
+		return catalog;
+	}
+
+	/**
+	 * Adds a string to the dictionary if it is not there yet.
+	 */
+	private static void intern(LinkedHashMap<String, Integer> dictionary, String value) {
+		if (!dictionary.containsKey(value)) {
+			dictionary.put(value, dictionary.size());
+		}
+	}
+
+	/**
+	 * Gets the CRC32 of a whole file, read sequentially.
+	 */
+	private static int checksum(Path path) throws IOException {
+		CRC32 crc = new CRC32();
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			ByteBuffer buffer = ByteBuffer.allocateDirect(64 * 1024);
+			while (channel.read(buffer) >= 0) {
+				buffer.flip();
+				crc.update(buffer);
+				buffer.clear();
+			}
+		}
+		return (int) crc.getValue();
+	}
+}
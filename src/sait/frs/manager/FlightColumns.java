@@ -0,0 +1,243 @@
+package sait.frs.manager;
+
+import java.util.*;
+import sait.frs.problemdomain.*;
+
+/**
+ * Every flight as columns of primitive arrays: origin and destination ids,
+ * weekday, departure minutes, seats and cost in cents. The airport ids are
+ * the ones Flight keeps, so the columns and the flights share one encoding.
+ *
+ * A scan reads only these arrays instead of following a reference to every
+ * Flight. It works on blocks of rows, one criterion at a time: the indexes of
+ * the block's rows go into a selection list, and each criterion walks its
+ * column over the rows still selected and keeps the ones that pass. Each
+ * index is written back whether the row passes or not, only the count moving
+ * when it does, so the loops have no branches that depend on the data.
+ * Criteria that match everything are skipped. The Flight objects are only
+ * looked up for the rows left at the end.
+ */
+public class FlightColumns {
+
+	private List<Flight> flights;
+	private short[] from;
+	private short[] to;
+	private byte[] weekday;
+	private short[] minutes;
+	private int[] seats;
+	private int[] cents;
+
+	/**
+	 * Criteria of a scan as column values.
+	 */
+	private static class Predicate {
+
+		private boolean anyFrom;
+		private boolean anyTo;
+		private boolean anyWeekday;
+		private short from;
+		private short to;
+		private byte weekday;
+		private int earliest;
+		private int latest;
+		private int minCents;
+		private int maxCents;
+	}
+
+	/**
+	 * Builds the columns.
+	 *
+	 * @param flights - Flights in schedule order, kept for the rows found
+	 */
+	public FlightColumns(List<Flight> flights) {
+		this.flights = flights;
+		int rows = flights.size();
+		from = new short[rows];
+		to = new short[rows];
+		weekday = new byte[rows];
+		minutes = new short[rows];
+		seats = new int[rows];
+		cents = new int[rows];
+		for (int i = 0; i < rows; i++) {
+			Flight flight = flights.get(i);
+			from[i] = (short) flight.getFromId();
+			to[i] = (short) flight.getToId();
+			weekday[i] = (byte) Manager.WEEKDAYS.indexOf(flight.getWeekday());
+			minutes[i] = (short) flight.getDepartureMinutes();
+			seats[i] = flight.getSeats();
+			cents[i] = (int) Math.round(flight.getCostPerSeat() * 100);
+		}
+	}
+
+	/**
+	 * Finds the flights matching a scan.
+	 *
+	 * @param scan - Criteria
+	 * @return ArrayList of the matching flights in schedule order.
+	 */
+	public ArrayList<Flight> find(FlightScan scan) {
+		ArrayList<Flight> found = new ArrayList<Flight>();
+		Predicate predicate = predicate(scan);
+		if (predicate == null) {
+			return found;
+		}
+		int[] selected = new int[Math.min(from.length, 4096)];
+		for (int start = 0; start < from.length; start += selected.length) {
+			int count = select(predicate, start, Math.min(from.length, start + selected.length), selected);
+			for (int i = 0; i < count; i++) {
+				found.add(flights.get(selected[i]));
+			}
+		}
+		return found;
+	}
+
+	/**
+	 * Counts and totals the flights matching a scan without looking at any
+	 * Flight.
+	 *
+	 * @param scan - Criteria
+	 * @return Summary of the matching flights.
+	 */
+	public FlightSummary summarize(FlightScan scan) {
+		Predicate predicate = predicate(scan);
+		if (predicate == null) {
+			return new FlightSummary(0, 0, 0, 0, 0);
+		}
+		int count = 0;
+		long totalSeats = 0;
+		long totalCents = 0;
+		long minCents = Long.MAX_VALUE;
+		long maxCents = Long.MIN_VALUE;
+		int[] selected = new int[Math.min(from.length, 4096)];
+		for (int start = 0; start < from.length; start += selected.length) {
+			int selectedCount = select(predicate, start, Math.min(from.length, start + selected.length), selected);
+			for (int i = 0; i < selectedCount; i++) {
+				int row = selected[i];
+				totalSeats += seats[row];
+				totalCents += cents[row];
+				minCents = Math.min(minCents, cents[row]);
+				maxCents = Math.max(maxCents, cents[row]);
+			}
+			count += selectedCount;
+		}
+		return new FlightSummary(count, totalSeats, minCents, maxCents, totalCents);
+	}
+
+	/**
+	 * Writes the indexes of the matching rows from first up to but not
+	 * including last into selected.
+	 *
+	 * @return Number of rows written.
+	 */
+	private int select(Predicate predicate, int first, int last, int[] selected) {
+		int count = last - first;
+		for (int i = 0; i < count; i++) {
+			selected[i] = first + i;
+		}
+		if (!predicate.anyFrom) {
+			count = keepEqual(from, predicate.from, selected, count);
+		}
+		if (!predicate.anyTo) {
+			count = keepEqual(to, predicate.to, selected, count);
+		}
+		if (!predicate.anyWeekday) {
+			count = keepEqual(weekday, predicate.weekday, selected, count);
+		}
+		if (predicate.earliest > Short.MIN_VALUE || predicate.latest < Short.MAX_VALUE) {
+			count = keepBetween(minutes, predicate.earliest, predicate.latest, selected, count);
+		}
+		if (predicate.minCents > Integer.MIN_VALUE || predicate.maxCents < Integer.MAX_VALUE) {
+			count = keepBetween(cents, predicate.minCents, predicate.maxCents, selected, count);
+		}
+		return count;
+	}
+
+	/**
+	 * Keeps the selected rows whose value equals some value.
+	 *
+	 * @return Number of rows kept, moved to the front of selected.
+	 */
+	private static int keepEqual(short[] column, short value, int[] selected, int count) {
+		int kept = 0;
+		for (int i = 0; i < count; i++) {
+			int row = selected[i];
+			selected[kept] = row;
+			kept += column[row] == value ? 1 : 0;
+		}
+		return kept;
+	}
+
+	/**
+	 * Keeps the selected rows whose value equals some value.
+	 *
+	 * @return Number of rows kept, moved to the front of selected.
+	 */
+	private static int keepEqual(byte[] column, byte value, int[] selected, int count) {
+		int kept = 0;
+		for (int i = 0; i < count; i++) {
+			int row = selected[i];
+			selected[kept] = row;
+			kept += column[row] == value ? 1 : 0;
+		}
+		return kept;
+	}
+
+	/**
+	 * Keeps the selected rows whose value is within a range.
+	 *
+	 * @return Number of rows kept, moved to the front of selected.
+	 */
+	private static int keepBetween(short[] column, int low, int high, int[] selected, int count) {
+		int kept = 0;
+		for (int i = 0; i < count; i++) {
+			int row = selected[i];
+			selected[kept] = row;
+			kept += column[row] >= low & column[row] <= high ? 1 : 0;
+		}
+		return kept;
+	}
+
+	/**
+	 * Keeps the selected rows whose value is within a range.
+	 *
+	 * @return Number of rows kept, moved to the front of selected.
+	 */
+	private static int keepBetween(int[] column, int low, int high, int[] selected, int count) {
+		int kept = 0;
+		for (int i = 0; i < count; i++) {
+			int row = selected[i];
+			selected[kept] = row;
+			kept += column[row] >= low & column[row] <= high ? 1 : 0;
+		}
+		return kept;
+	}
+
+	/**
+	 * Turns a scan into column values.
+	 *
+	 * @return Predicate, or null if no flight can match.
+	 */
+	private Predicate predicate(FlightScan scan) {
+		int fromId = scan.getFrom() == null ? -1 : Flight.findAirportId(scan.getFrom());
+		int toId = scan.getTo() == null ? -1 : Flight.findAirportId(scan.getTo());
+		int day = scan.getWeekday() == null ? -1 : Manager.WEEKDAYS.indexOf(scan.getWeekday());
+		if ((scan.getFrom() != null && fromId < 0) || (scan.getTo() != null && toId < 0)
+				|| (scan.getWeekday() != null && day < 0)) {
+			return null;
+		}
+
+		Predicate predicate = new Predicate();
+		predicate.anyFrom = fromId < 0;
+		predicate.anyTo = toId < 0;
+		predicate.anyWeekday = day < 0;
+		predicate.from = (short) fromId;
+		predicate.to = (short) toId;
+		predicate.weekday = (byte) day;
+		predicate.earliest = scan.getEarliest();
+		predicate.latest = scan.getLatest();
+		// Costs are read to the cent, so allow for rounding of the bounds.
+		predicate.minCents = (int) Math.ceil(scan.getMinCost() * 100 - 1e-6);
+		predicate.maxCents = (int) Math.floor(Math.min(scan.getMaxCost(), Integer.MAX_VALUE / 100) * 100 + 1e-6);
+		return predicate;
+	}
+}
@@ -0,0 +1,109 @@
+package sait.frs.manager;
+
+import sait.frs.problemdomain.*;
+
+/**
+ * Criteria of a scan over every flight. A flight matches when it meets every
+ * criterion given; null criteria match everything.
+ */
+public class FlightScan {
+
+	private String from;
+	private String to;
+	private String weekday;
+	private int earliest;
+	private int latest;
+	private double minCost;
+	private double maxCost;
+
+	/**
+	 * Creates a scan.
+	 *
+	 * @param from     - From airport, or null for any airport
+	 * @param to       - To airport, or null for any airport
+	 * @param weekday  - Day of week (one of the WEEKDAY_* constants of Manager),
+	 *                 or null or Manager.WEEKDAY_ANY for any day
+	 * @param earliest - Earliest time to leave in 24 hour format, or null
+	 * @param latest   - Latest time to leave in 24 hour format, or null
+	 * @param minCost  - Lowest cost per seat
+	 * @param maxCost  - Highest cost per seat
+	 * @throws IllegalArgumentException Thrown if a time cannot be read.
+	 */
+	public FlightScan(String from, String to, String weekday, String earliest, String latest, double minCost,
+			double maxCost) {
+		this.from = from;
+		this.to = to;
+		this.weekday = Manager.WEEKDAY_ANY.equals(weekday) ? null : weekday;
+		this.earliest = earliest == null ? Integer.MIN_VALUE : Flight.parseTime(earliest);
+		this.latest = latest == null ? Integer.MAX_VALUE : Flight.parseTime(latest);
+		if (this.earliest == -1 || this.latest == -1) {
+			throw new IllegalArgumentException(
+					String.format("Error: Times must be in 24 hour format, not %s and %s.", earliest, latest));
+		}
+		this.minCost = minCost;
+		this.maxCost = maxCost;
+	}
+
+	/**
+	 * Gets the from airport.
+	 *
+	 * @return Airport code, or null for any airport
+	 */
+	public String getFrom() {
+		return from;
+	}
+
+	/**
+	 * Gets the to airport.
+	 *
+	 * @return Airport code, or null for any airport
+	 */
+	public String getTo() {
+		return to;
+	}
+
+	/**
+	 * Gets the day of week.
+	 *
+	 * @return Weekday, or null for any day
+	 */
+	public String getWeekday() {
+		return weekday;
+	}
+
+	/**
+	 * Gets the earliest time to leave.
+	 *
+	 * @return Minutes since midnight, or Integer.MIN_VALUE for no limit
+	 */
+	public int getEarliest() {
+		return earliest;
+	}
+
+	/**
+	 * Gets the latest time to leave.
+	 *
+	 * @return Minutes since midnight, or Integer.MAX_VALUE for no limit
+	 */
+	public int getLatest() {
+		return latest;
+	}
+
+	/**
+	 * Gets the lowest cost per seat.
+	 *
+	 * @return Lowest cost
+	 */
+	public double getMinCost() {
+		return minCost;
+	}
+
+	/**
+	 * Gets the highest cost per seat.
+	 *
+	 * @return Highest cost
+	 */
+	public double getMaxCost() {
+		return maxCost;
+	}
+}
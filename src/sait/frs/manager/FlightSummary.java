@@ -0,0 +1,81 @@
+package sait.frs.manager;
+
+/**
+ * Totals over the flights matching a scan.
+ */
+public class FlightSummary {
+
+	private int count;
+	private long seats;
+	private long minCents;
+	private long maxCents;
+	private long totalCents;
+
+	/**
+	 * Creates a summary.
+	 *
+	 * @param count      - Number of flights
+	 * @param seats      - Seats on those flights, added up
+	 * @param minCents   - Lowest cost per seat in cents
+	 * @param maxCents   - Highest cost per seat in cents
+	 * @param totalCents - Costs per seat in cents, added up
+	 */
+	public FlightSummary(int count, long seats, long minCents, long maxCents, long totalCents) {
+		this.count = count;
+		this.seats = seats;
+		this.minCents = minCents;
+		this.maxCents = maxCents;
+		this.totalCents = totalCents;
+	}
+
+	/**
+	 * Gets the number of flights.
+	 *
+	 * @return Number of flights
+	 */
+	public int getCount() {
+		return count;
+	}
+
+	/**
+	 * Gets the seats on every flight, added up.
+	 *
+	 * @return Total number of seats
+	 */
+	public long getSeats() {
+		return seats;
+	}
+
+	/**
+	 * Gets the lowest cost per seat.
+	 *
+	 * @return Lowest cost, 0 if no flight matched
+	 */
+	public double getMinCost() {
+		return count == 0 ? 0 : minCents / 100.0;
+	}
+
+	/**
+	 * Gets the highest cost per seat.
+	 *
+	 * @return Highest cost, 0 if no flight matched
+	 */
+	public double getMaxCost() {
+		return count == 0 ? 0 : maxCents / 100.0;
+	}
+
+	/**
+	 * Gets the average cost per seat.
+	 *
+	 * @return Average cost, 0 if no flight matched
+	 */
+	public double getAverageCost() {
+		return count == 0 ? 0 : totalCents / 100.0 / count;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("Flights: %d, Seats: %d, Cost: %.2f to %.2f, Average: %.2f", count, seats, getMinCost(),
+				getMaxCost(), getAverageCost());
+	}
+}
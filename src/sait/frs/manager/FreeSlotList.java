@@ -0,0 +1,103 @@
+package sait.frs.manager;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Persistent stack of reservation slots that hold inactive reservations and
+ * may be overwritten by new ones. Each slot is stored as a 4 byte integer, so
+ * pushing appends to the file and popping shortens it.
+ */
+public class FreeSlotList {
+
+	private RandomAccessFile file;
+
+	/**
+	 * Opens the free list, creating it if it does not exist. A torn last entry
+	 * is dropped.
+	 *
+	 * @param path - Location of the free list file
+	 * @throws IOException Thrown when the file could not be accessed.
+	 */
+	public FreeSlotList(String path) throws IOException {
+		file = new RandomAccessFile(path, "rw");
+		if (file.length() % 4 != 0) {
+			file.setLength(file.length() - file.length() % 4);
+		}
+	}
+
+	/**
+	 * Gets the number of slots in the list.
+	 *
+	 * @return Number of slots
+	 * @throws IOException Thrown when the file could not be accessed.
+	 */
+	public synchronized int size() throws IOException {
+		return (int) (file.length() / 4);
+	}
+
+	/**
+	 * Reads every slot in the list.
+	 *
+	 * @return ArrayList of slots, oldest first.
+	 * @throws IOException Thrown when the file could not be accessed.
+	 */
+	public synchronized ArrayList<Integer> readAll() throws IOException {
+		int size = size();
+		ArrayList<Integer> slots = new ArrayList<Integer>(size);
+		byte[] bytes = new byte[size * 4];
+		file.seek(0);
+		file.readFully(bytes);
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+		for (int i = 0; i < size; i++) {
+			slots.add(in.readInt());
+		}
+		return slots;
+	}
+
+	/**
+	 * Adds a slot to the top of the list.
+	 *
+	 * @param slot - Slot of an inactive reservation
+	 * @throws IOException Thrown when the file could not be accessed.
+	 */
+	public synchronized void push(int slot) throws IOException {
+		file.seek(file.length());
+		file.writeInt(slot);
+	}
+
+	/**
+	 * Removes the slot on top of the list.
+	 *
+	 * @return Slot number or -1 if the list is empty.
+	 * @throws IOException Thrown when the file could not be accessed.
+	 */
+	public synchronized int pop() throws IOException {
+		long length = file.length();
+		if (length == 0) {
+			return -1;
+		}
+		file.seek(length - 4);
+		int slot = file.readInt();
+		file.setLength(length - 4);
+		return slot;
+	}
+
+	/**
+	 * Removes every slot from the list.
+	 *
+	 * @throws IOException Thrown when the file could not be accessed.
+	 */
+	public synchronized void clear() throws IOException {
+		file.setLength(0);
+	}
+
+	/**
+	 * Closes the file.
+	 *
+	 * @throws IOException Thrown when the file could not be closed.
+	 */
+	public synchronized void close() throws IOException {
+		file.close();
+	}
+}
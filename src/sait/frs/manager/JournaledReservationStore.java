@@ -0,0 +1,306 @@
+package sait.frs.manager;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.locks.*;
+import java.util.zip.CRC32;
+import sait.frs.problemdomain.*;
+
+/**
+ * Reservation store that records every change in an append-only journal
+ * before it reaches the reservation file.
+ *
+ * A caller returns once its journal entry is on disk. Callers that arrive
+ * while another caller is syncing the journal are written and synced together
+ * by the next one to get the journal (group commit), so the number of syncs
+ * grows with the number of batches instead of the number of bookings. Entries
+ * stay queued until their batch is synced: if the write fails, the caller
+ * writing it gets the error and the others write the batch again. A
+ * background checkpoint copies the latest version of each journaled record
+ * into the reservation file and empties the journal.
+ */
+public class JournaledReservationStore implements ReservationStore {
+
+	public static final byte OP_CREATE = 1;
+	public static final byte OP_UPDATE = 2;
+	public static final byte OP_DELETE = 3;
+
+	/**
+	 * Operation, slot, record and CRC32 of the three.
+	 */
+	public static final int ENTRY_SIZE = 1 + 4 + ReservationFile.RECORD_SIZE + 4;
+
+	private static final long CHECKPOINT_SECONDS = 5;
+	private static final int CHECKPOINT_ENTRIES = 4096;
+
+	private ReservationFile file;
+	private FileChannel journal;
+
+	/**
+	 * Latest record of every slot changed since the last checkpoint.
+	 */
+	private TreeMap<Integer, byte[]> dirty = new TreeMap<Integer, byte[]>();
+
+	/**
+	 * Entries waiting for the next journal write.
+	 */
+	private ByteArrayOutputStream pending = new ByteArrayOutputStream();
+	private long queued;
+	private volatile long durable;
+	private int nextSlot;
+
+	private ReentrantLock commitLock = new ReentrantLock();
+	private ScheduledExecutorService checkpointer;
+
+	/**
+	 * Opens the reservation file and its journal. Entries left in the journal by
+	 * a previous run are replayed into the reservation file.
+	 *
+	 * @param path        - Location of the reservation file
+	 * @param journalPath - Location of the journal
+	 * @throws IOException Thrown when either file could not be accessed.
+	 */
+	public JournaledReservationStore(String path, String journalPath) throws IOException {
+		file = new ReservationFile(path);
+		journal = FileChannel.open(Paths.get(journalPath), StandardOpenOption.CREATE, StandardOpenOption.READ,
+				StandardOpenOption.WRITE);
+		replay();
+		checkpoint();
+		nextSlot = file.getSlotCount();
+
+		checkpointer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "reservation-checkpoint");
+			thread.setDaemon(true);
+			return thread;
+		});
+		checkpointer.scheduleWithFixedDelay(this::checkpointQuietly, CHECKPOINT_SECONDS, CHECKPOINT_SECONDS,
+				TimeUnit.SECONDS);
+	}
+
+	@Override
+	public ArrayList<Reservation> readAll() throws IOException {
+		commitLock.lock();
+		try {
+			checkpoint();
+			return file.readAll();
+		} finally {
+			commitLock.unlock();
+		}
+	}
+
+	@Override
+	public int getCorruptCount() {
+		return file.getCorruptCount();
+	}
+
+	@Override
+	public void append(Reservation reservation) throws IOException {
+		commit(queue(OP_CREATE, reservation));
+	}
+
+	@Override
+	public void write(Reservation reservation) throws IOException {
+		commit(queue(reservation.isActive() ? OP_UPDATE : OP_DELETE, reservation));
+	}
+
+	/**
+	 * Journals a batch of reservations with a single sync.
+	 *
+	 * @param reservations - Reservations to save
+	 * @throws IOException Thrown when the journal could not be written.
+	 */
+	@Override
+	public void writeBatch(List<Reservation> reservations) throws IOException {
+		long sequence = 0;
+		for (Reservation reservation : reservations) {
+			synchronized (reservation) {
+				if (reservation.isRemoved()) {
+					continue;
+				}
+				byte op = reservation.getSlot() < 0 ? OP_CREATE : reservation.isActive() ? OP_UPDATE : OP_DELETE;
+				sequence = queue(op, reservation);
+			}
+		}
+		if (sequence > 0) {
+			commit(sequence);
+		}
+	}
+
+	@Override
+	public void writeAll(List<Reservation> reservations) throws IOException {
+		commitLock.lock();
+		try {
+			checkpoint();
+			file.writeAll(reservations);
+			file.sync();
+			synchronized (this) {
+				nextSlot = reservations.size();
+			}
+		} finally {
+			commitLock.unlock();
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		checkpointer.shutdown();
+		commitLock.lock();
+		try {
+			checkpoint();
+			journal.close();
+			file.close();
+		} finally {
+			commitLock.unlock();
+		}
+	}
+
+	/**
+	 * Copies the journaled records into the reservation file and empties the
+	 * journal.
+	 *
+	 * @throws IOException Thrown when either file could not be accessed.
+	 */
+	public void checkpoint() throws IOException {
+		commitLock.lock();
+		try {
+			if (dirty.isEmpty()) {
+				return;
+			}
+			for (Map.Entry<Integer, byte[]> entry : dirty.entrySet()) {
+				file.writeRecord(entry.getKey(), entry.getValue());
+			}
+			file.sync();
+			journal.truncate(0);
+			journal.force(true);
+			dirty.clear();
+		} finally {
+			commitLock.unlock();
+		}
+	}
+
+	/**
+	 * Queues a journal entry for the next journal write.
+	 *
+	 * @return Sequence number of the entry.
+	 */
+	private long queue(byte op, Reservation reservation) {
+		ByteBuffer entry = ByteBuffer.allocate(ENTRY_SIZE);
+		long sequence;
+		synchronized (this) {
+			if (op == OP_CREATE) {
+				reservation.setSlot(nextSlot++);
+			}
+			entry.put(op);
+			entry.putInt(reservation.getSlot());
+			ReservationFile.encode(reservation, entry);
+			entry.putInt(checksum(entry.array()));
+			pending.write(entry.array(), 0, ENTRY_SIZE);
+			sequence = ++queued;
+		}
+		return sequence;
+	}
+
+	/**
+	 * Returns once every entry up to a sequence number is on disk, writing and
+	 * syncing the waiting entries if no other caller has.
+	 */
+	private void commit(long sequence) throws IOException {
+		commitLock.lock();
+		try {
+			if (durable >= sequence) {
+				return;
+			}
+			byte[] batch;
+			long last;
+			synchronized (this) {
+				batch = pending.toByteArray();
+				last = queued;
+			}
+
+			// The entries stay pending until they are synced, so that if this write
+			// fails the next caller writes them again instead of skipping them.
+			long end = journal.size();
+			try {
+				ByteBuffer buffer = ByteBuffer.wrap(batch);
+				long position = end;
+				while (buffer.hasRemaining()) {
+					position += journal.write(buffer, position);
+				}
+				journal.force(false);
+			} catch (IOException e) {
+				// Cut off what was written so that replay never stops at a torn batch.
+				try {
+					journal.truncate(end);
+				} catch (IOException truncateFailed) {
+					e.addSuppressed(truncateFailed);
+				}
+				throw e;
+			}
+			synchronized (this) {
+				byte[] waiting = pending.toByteArray();
+				pending.reset();
+				pending.write(waiting, batch.length, waiting.length - batch.length);
+			}
+			for (int offset = 0; offset < batch.length; offset += ENTRY_SIZE) {
+				int slot = ByteBuffer.wrap(batch, offset + 1, 4).getInt();
+				dirty.put(slot, Arrays.copyOfRange(batch, offset + 5, offset + 5 + ReservationFile.RECORD_SIZE));
+			}
+			durable = last;
+			if (dirty.size() >= CHECKPOINT_ENTRIES) {
+				checkpointer.execute(this::checkpointQuietly);
+			}
+		} finally {
+			commitLock.unlock();
+		}
+	}
+
+	/**
+	 * Reads the journal from the start and stops at the first torn or corrupt
+	 * entry, which is cut off.
+	 */
+	private void replay() throws IOException {
+		ByteBuffer entry = ByteBuffer.allocate(ENTRY_SIZE);
+		long position = 0;
+		while (true) {
+			entry.clear();
+			while (entry.hasRemaining()) {
+				if (journal.read(entry, position + entry.position()) <= 0) {
+					break;
+				}
+			}
+			if (entry.hasRemaining() || entry.getInt(ENTRY_SIZE - 4) != checksum(entry.array())) {
+				break;
+			}
+			int slot = entry.getInt(1);
+			dirty.put(slot, Arrays.copyOfRange(entry.array(), 5, 5 + ReservationFile.RECORD_SIZE));
+			position += ENTRY_SIZE;
+		}
+		if (journal.size() > position) {
+			journal.truncate(position);
+		}
+	}
+
+	/**
+	 * Runs a checkpoint from the background thread.
+	 */
+	private void checkpointQuietly() {
+		try {
+			checkpoint();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Gets the checksum of an entry, leaving out its last 4 bytes.
+	 */
+	private static int checksum(byte[] entry) {
+		CRC32 crc = new CRC32();
+		crc.update(entry, 0, ENTRY_SIZE - 4);
+		return (int) crc.getValue();
+	}
+}
@@ -2,6 +2,8 @@ package sait.frs.manager;
 
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.locks.*;
 import sait.frs.exception.*;
 import sait.frs.problemdomain.*;
 
@@ -22,65 +24,280 @@ public class Manager {
 	public static final String WEEKDAY_FRIDAY = "Friday";
 	public static final String WEEKDAY_SATURDAY = "Saturday";
 
-	private ArrayList<Flight> flights = new ArrayList<Flight>();
-	private ArrayList<String> airports = new ArrayList<String>();
-	private ArrayList<Reservation> reservations = new ArrayList<Reservation>();
+	/**
+	 * The weekdays in order, starting with Sunday.
+	 */
+	static final List<String> WEEKDAYS = List.of(WEEKDAY_SUNDAY, WEEKDAY_MONDAY, WEEKDAY_TUESDAY, WEEKDAY_WEDNESDAY,
+			WEEKDAY_THURSDAY, WEEKDAY_FRIDAY, WEEKDAY_SATURDAY);
+
+	/**
+	 * System property choosing how reservations are saved: "file" writes each
+	 * record straight into the reservation file, "journal" goes through a group
+	 * committed journal and "mapped" encodes records straight into a memory
+	 * mapping of the file. Every mode reads all the reservations when the
+	 * Manager starts.
+	 */
+	public static final String PERSISTENCE_PROPERTY = "frs.persistence";
+
+	/**
+	 * System property choosing how flights.csv is parsed when the flight catalog
+	 * has to be compiled: "serial", the default, parses it on the calling thread
+	 * and "parallel" splits it into ranges parsed on the common ForkJoinPool.
+	 * CatalogLoadBenchmark compares the two.
+	 */
+	public static final String LOAD_PROPERTY = "frs.load";
+
+	/**
+	 * System property that prints how long each startup stage took when set to
+	 * "true". Off by default.
+	 */
+	public static final String TIMING_PROPERTY = "frs.timing";
+
+	private static final String AIRPORTS_FILE = "res/airports.csv";
+	private static final String FLIGHTS_FILE = "res/flights.csv";
+	private static final String CATALOG_FILE = "res/flights.catalog";
+	private static final String RESERVATIONS_FILE = "res/Reservations.bin";
+	private static final String RESERVATIONS_JOURNAL = "res/Reservations.journal";
+	private static final String RESERVATIONS_FREE_LIST = "res/Reservations.free";
+	private static final int WRITE_QUEUE_CAPACITY = 1024;
+	private static final int LOCK_STRIPES = 64;
+
+	/**
+	 * Airports and flights never change once loaded, so they are handed out as
+	 * unmodifiable lists shared with every caller.
+	 */
+	private List<Flight> flights = Collections.emptyList();
+	private RouteIndex routeIndex;
+	private ConnectionIndex connections;
+	private FareIndex fareIndex;
+	private FlightColumns flightColumns;
+	private HashMap<String, Flight> flightsByCode = new HashMap<String, Flight>();
+	private AirportCatalog airports = new AirportCatalog(Collections.emptyList(), Collections.emptyList());
+
+	/**
+	 * Reservations, changed while synchronized on the Manager. Searches go
+	 * through queryEngine, which has its own lock, so they never wait for the
+	 * Manager.
+	 */
+	private LinkedHashSet<Reservation> reservations = new LinkedHashSet<Reservation>();
+	private volatile ReservationQueryEngine queryEngine = new ReservationQueryEngine(Collections.emptyList());
+
+	/**
+	 * Reservations by code. Codes are random, so a code may belong to more than
+	 * one reservation. Each list is unmodifiable and replaced on change, so
+	 * lookups need no lock.
+	 */
+	private volatile ConcurrentHashMap<String, List<Reservation>> reservationsByCode = new ConcurrentHashMap<String, List<Reservation>>();
+
+	/**
+	 * Making a reservation active or inactive, or overwriting an inactive one,
+	 * locks the stripe of its flight, so agents working on different flights
+	 * rarely wait for each other. Every change to the reservations holds the
+	 * read side of rewriteLock; rewriting the whole reservation file holds the
+	 * write side.
+	 */
+	private ReentrantLock[] flightLocks = new ReentrantLock[LOCK_STRIPES];
+	private ReentrantReadWriteLock rewriteLock = new ReentrantReadWriteLock();
+	private SeatInventory seats;
+	private ReservationCodeAllocator reservationCodes = new ReservationCodeAllocator();
+	private ReservationStore reservationStore;
+	private WriteBehindQueue writeQueue;
+
+	/**
+	 * Slots of inactive reservations that a new reservation may overwrite, and
+	 * the inactive reservation currently listed for each of those slots.
+	 */
+	private FreeSlotList freeSlots;
+	private HashMap<Integer, Reservation> freeReservations = new HashMap<Integer, Reservation>();
+
+	/**
+	 * Owner of every reservation of the Manager, through which Reservation
+	 * changes its name and status.
+	 */
+	private ReservationOwner owner = new Owner();
+
+	private ExecutorService compactor = Executors.newSingleThreadExecutor(runnable -> {
+		Thread thread = new Thread(runnable, "reservation-compaction");
+		thread.setDaemon(true);
+		return thread;
+	});
 
 	/**
-	 * Default constructor for Manager
+	 * Startup stages. Airports, flights and reservations are loaded at the same
+	 * time on the bootstrap threads, and each method waits only for the stage
+	 * holding the data it needs.
+	 */
+	private ExecutorService bootstrap = Executors.newFixedThreadPool(3, runnable -> {
+		Thread thread = new Thread(runnable, "manager-bootstrap");
+		thread.setDaemon(true);
+		return thread;
+	});
+	private CompletableFuture<Void> airportsLoaded;
+	private CompletableFuture<Void> flightsLoaded;
+	private CompletableFuture<Void> reservationsLoaded;
+
+	/**
+	 * Default constructor for Manager. The reservation store is chosen with the
+	 * PERSISTENCE_PROPERTY system property.
 	 * 
 	 * @throws IOException Thrown when the file could not be accessed.
 	 */
 	public Manager() throws IOException {
+		this(() -> openStore(System.getProperty(PERSISTENCE_PROPERTY, "file")), RESERVATIONS_FREE_LIST);
+	}
+
+	/**
+	 * Constructor for Manager saving reservations to the given store.
+	 * 
+	 * @param reservationStore - Store the reservations are loaded from and saved to
+	 * @throws IOException Thrown when the file could not be accessed.
+	 */
+	public Manager(ReservationStore reservationStore) throws IOException {
+		this(reservationStore, RESERVATIONS_FREE_LIST);
+	}
 
-		populateAirports();
-		populateFlights();
-		populateFromBinary();
+	/**
+	 * Constructor for Manager saving reservations to the given store and the
+	 * slots free for reuse to the given free list.
+	 * 
+	 * @param reservationStore - Store the reservations are loaded from and saved to
+	 * @param freeListFile     - File listing the slots of inactive reservations
+	 * @throws IOException Thrown when the file could not be accessed.
+	 */
+	public Manager(ReservationStore reservationStore, String freeListFile) throws IOException {
+		this(() -> reservationStore, freeListFile);
 	}
 
 	/**
-	 * Gets all of the airports
+	 * Starts loading airports, flights and reservations in the background and
+	 * returns without waiting for them. With TIMING_PROPERTY set, each stage
+	 * prints how long it took.
 	 * 
-	 * @return ArrayList of airports.
+	 * @param storeOpener  - Opens the reservation store on a bootstrap thread
+	 * @param freeListFile - File listing the slots of inactive reservations
 	 */
-	public ArrayList<String> getAirports() {
-		return new ArrayList<String>(airports);
+	private Manager(Callable<ReservationStore> storeOpener, String freeListFile) {
+		for (int i = 0; i < flightLocks.length; i++) {
+			flightLocks[i] = new ReentrantLock();
+		}
+		long started = System.nanoTime();
+
+		airportsLoaded = startStage("airports", started, this::populateAirports);
+		flightsLoaded = startStage("flights", started, this::populateFlights);
+		reservationsLoaded = startStage("reservations", started, () -> {
+			this.reservationStore = storeOpener.call();
+			this.freeSlots = new FreeSlotList(freeListFile);
+			populateFromBinary();
+			this.seats = new SeatInventory(reservations);
+			this.writeQueue = new WriteBehindQueue(reservationStore, WRITE_QUEUE_CAPACITY);
+		});
+
+		CompletableFuture.allOf(airportsLoaded, flightsLoaded, reservationsLoaded).whenComplete((done, error) -> {
+			bootstrap.shutdown();
+			if (Boolean.getBoolean(TIMING_PROPERTY)) {
+				System.out.printf("Startup: all stages finished %.1f ms after start%n", (System.nanoTime() - started) / 1e6);
+			}
+		});
+		Runtime.getRuntime().addShutdownHook(new Thread(this::close, "reservation-shutdown"));
 	}
 
 	/**
-	 * Gets all of the flights
+	 * Gets a future that completes once the airports are loaded.
 	 * 
-	 * @return ArrayList of Flight.
+	 * @return Future of the airport stage. It completes exceptionally if the
+	 *         airports could not be loaded.
 	 */
-	public ArrayList<Flight> getFlights() {
-		return new ArrayList<Flight>(flights);
+	public CompletableFuture<Void> whenAirportsLoaded() {
+		return airportsLoaded.copy();
 	}
 
 	/**
-	 * Unused method
+	 * Gets a future that completes once the flights are loaded.
 	 * 
-	 * @param code
-	 * @return null
+	 * @return Future of the flight stage. It completes exceptionally if the
+	 *         flights could not be loaded.
+	 */
+	public CompletableFuture<Void> whenFlightsLoaded() {
+		return flightsLoaded.copy();
+	}
+
+	/**
+	 * Gets a future that completes once the reservations are loaded and can be
+	 * searched, made and saved.
+	 * 
+	 * @return Future of the reservation stage. It completes exceptionally if the
+	 *         reservation store could not be opened.
+	 */
+	public CompletableFuture<Void> whenReservationsLoaded() {
+		return reservationsLoaded.copy();
+	}
+
+	/**
+	 * Gets the number of damaged records found in the reservation file, which
+	 * were left out of the reservations. Waits for the reservations to be
+	 * loaded.
+	 * 
+	 * @return Number of damaged records, 0 if the file is intact.
+	 */
+	public int getCorruptReservationCount() {
+		await(reservationsLoaded);
+		return reservationStore.getCorruptCount();
+	}
+
+	/**
+	 * Gets all of the airports. Waits for the airports to be loaded.
+	 * 
+	 * @return Unmodifiable List of airports, shared by every caller.
+	 */
+	public List<String> getAirports() {
+		await(airportsLoaded);
+		return airports.getCodes();
+	}
+
+	/**
+	 * Gets all of the flights. Waits for the flights to be loaded.
+	 * 
+	 * @return Unmodifiable List of Flight, shared by every caller.
+	 */
+	public List<Flight> getFlights() {
+		await(flightsLoaded);
+		return flights;
+	}
+
+	/**
+	 * Finds the full name of an airport using code
+	 * 
+	 * @param code - Airport code
+	 * @return Full name of the airport or null if code is not found.
 	 */
 	public String findAirportByCode(String code) {
-		return null;
+		await(airportsLoaded);
+		return airports.findName(code);
+	}
+
+	/**
+	 * Finds airports whose code or full name starts with some text, ignoring
+	 * case, for autocomplete.
+	 * 
+	 * @param prefix - Start of a code or name
+	 * @param count  - Most airports to return
+	 * @return ArrayList of up to count airport codes.
+	 */
+	public ArrayList<String> findAirportsByPrefix(String prefix, int count) {
+		await(airportsLoaded);
+		return airports.complete(prefix, count);
 	}
 
 	/**
 	 * Finds a flight using code
 	 * 
 	 * @param code
-	 * @return Flight object or null if code is not found.
+	 * @return Flight object or null if code is not found. If several flights share
+	 *         the code, the first one in the schedule.
 	 */
 	public Flight findFlightByCode(String code) {
-		for (Flight flight : flights) {
-			if (flight.getCode() == code) {
-				return flight;
-			} else {
-				continue;
-			}
-		}
-		return null;
+		await(flightsLoaded);
+		return flightsByCode.get(code);
 	}
 
 	/**
@@ -90,53 +307,279 @@ public class Manager {
 	 * @param to      - To airport
 	 * @param weekday - Day of week (one of WEEKDAY_* constants). Use WEEKDAY_ANY
 	 *                for any day of the week
-	 * @return Any f Flight objects.
+	 * @return Any f Flight objects. For WEEKDAY_ANY the flights are grouped by
+	 *         weekday.
 	 */
 	public ArrayList<Flight> findFlights(String from, String to, String weekday) {
-		ArrayList<Flight> f = new ArrayList<Flight>();
-		for (Flight flight : this.flights) {
-			if (!flight.getFrom().equals(from) || !flight.getTo().equals(to)
-					|| !weekday.equals(WEEKDAY_ANY) && !flight.getWeekday().equals(weekday)) {
-				continue;
-			}
-			f.add(flight);
+		await(flightsLoaded);
+		return routeIndex.find(from, to, weekday);
+	}
+
+	/**
+	 * Finds flights going between airports on a specified weekday that leave
+	 * within a range of times
+	 * 
+	 * @param from     - From airport
+	 * @param to       - To airport
+	 * @param weekday  - Day of week (one of WEEKDAY_* constants). Use WEEKDAY_ANY
+	 *                 for any day of the week
+	 * @param earliest - Earliest time to leave, in 24 hour format such as 6:00
+	 * @param latest   - Latest time to leave, in 24 hour format such as 10:00
+	 * @return ArrayList of Flight objects sorted by time. For WEEKDAY_ANY they are
+	 *         sorted by weekday from Sunday and then by time. Empty if latest is
+	 *         before earliest.
+	 * @throws IllegalArgumentException Thrown if a time cannot be read.
+	 */
+	public ArrayList<Flight> findFlights(String from, String to, String weekday, String earliest, String latest) {
+		int first = Flight.parseTime(earliest);
+		int last = Flight.parseTime(latest);
+		if (first < 0 || last < 0) {
+			throw new IllegalArgumentException(
+					String.format("Error: Times must be in 24 hour format, not %s and %s.", earliest, latest));
 		}
-		return f;
+		await(flightsLoaded);
+		return routeIndex.findDeparting(from, to, weekday, first, last);
+	}
+
+	/**
+	 * Finds every flight matching a scan by reading the flight columns
+	 * 
+	 * @param scan - Criteria
+	 * @return ArrayList of Flight objects in schedule order.
+	 */
+	public ArrayList<Flight> findFlights(FlightScan scan) {
+		await(flightsLoaded);
+		return flightColumns.find(scan);
+	}
+
+	/**
+	 * Counts and totals every flight matching a scan
+	 * 
+	 * @param scan - Criteria
+	 * @return Summary of the matching flights.
+	 */
+	public FlightSummary summarize(FlightScan scan) {
+		await(flightsLoaded);
+		return flightColumns.summarize(scan);
+	}
+
+	/**
+	 * Finds the cheapest flights leaving an airport
+	 * 
+	 * @param from         - From airport
+	 * @param weekday      - Day of week (one of WEEKDAY_* constants). Use
+	 *                     WEEKDAY_ANY for any day of the week
+	 * @param destinations - Airports to fly to, or null for any airport
+	 * @param count        - Most flights to return
+	 * @return ArrayList of up to count Flight objects, cheapest first.
+	 */
+	public ArrayList<Flight> findCheapestFlights(String from, String weekday, Collection<String> destinations,
+			int count) {
+		await(flightsLoaded);
+		return fareIndex.find(from, weekday, destinations, 0, Double.MAX_VALUE, count);
+	}
+
+	/**
+	 * Finds flights leaving an airport whose cost per seat is within a range
+	 * 
+	 * @param from    - From airport
+	 * @param weekday - Day of week (one of WEEKDAY_* constants). Use WEEKDAY_ANY
+	 *                for any day of the week
+	 * @param minCost - Lowest cost per seat
+	 * @param maxCost - Highest cost per seat
+	 * @return ArrayList of Flight objects sorted by cost.
+	 */
+	public ArrayList<Flight> findFlightsByCost(String from, String weekday, double minCost, double maxCost) {
+		await(flightsLoaded);
+		return fareIndex.find(from, weekday, null, minCost, maxCost, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Finds itineraries between airports, with connections leaving between
+	 * ConnectionIndex.MINIMUM_CONNECTION and ConnectionIndex.MAXIMUM_CONNECTION
+	 * minutes after the previous flight.
+	 * 
+	 * @param from     - From airport
+	 * @param to       - To airport
+	 * @param weekday  - Day the first flight leaves (one of WEEKDAY_* constants).
+	 *                 Use WEEKDAY_ANY for any day of the week
+	 * @param maxStops - Most stops allowed, 0 for direct flights only
+	 * @param ranking  - ConnectionIndex.RANK_BY_COST or
+	 *                 ConnectionIndex.RANK_BY_CONNECTION_TIME
+	 * @param count    - Most itineraries to return
+	 * @return ArrayList of up to count Itinerary objects, best first.
+	 */
+	public ArrayList<Itinerary> findConnections(String from, String to, String weekday, int maxStops, int ranking,
+			int count) {
+		await(flightsLoaded);
+		return connections.find(from, to, weekday, maxStops, ranking, count);
 	}
 
 	/**
 	 * Makes a reservation
 	 * 
 	 * @param flight      - Flight to book reservation for
-	 * @param name        - Name of person (cannot be null or empty)
-	 * @param citizenship - Citizenship of person (cannot be null or empty)
+	 * @param name        - Name of person (cannot be null, empty or too long)
+	 * @param citizenship - Citizenship of person (cannot be null, empty or too long)
 	 * @return Created reservation instance
 	 * @throws NullFlightException         - Thrown if flight is null
 	 * @throws NoMoreSeatsException        - Thrown if flight is booked up
-	 * @throws InvalidNameException        - Thrown if name is null or empty
-	 * @throws InvalidCitizenshipException - Thrown if citizenship is null or empty
+	 * @throws InvalidNameException        - Thrown if name is null, empty or too long
+	 * @throws InvalidCitizenshipException - Thrown if citizenship is null, empty or too long
+	 * @throws NoMoreReservationCodesException - Thrown if every reservation code
+	 *                                         for the flight is in use
 	 */
 	public Reservation makeReservation(Flight flight, String name, String citizenship)
-			throws InvalidNameException, InvalidCitizenshipException, NullFlightException, NoMoreSeatsException {
+			throws InvalidNameException, InvalidCitizenshipException, NullFlightException, NoMoreSeatsException,
+			NoMoreReservationCodesException {
 		if (flight == null) {
 			throw new NullFlightException();
 		}
-		if (this.getAvailableSeats(flight) == 0) {
+		await(reservationsLoaded);
+
+		// The seat is taken before the lock so a full flight is refused without waiting.
+		if (!seats.reserve(flight)) {
 			throw new NoMoreSeatsException();
 		}
 
+		Reservation reservation = null;
+		try {
+			reservation = createReservation(flight, name, citizenship);
+		} finally {
+			if (reservation == null) {
+				seats.release(flight.getCode());
+			}
+		}
+		persist(reservation);
+		return reservation;
+	}
+
+	/**
+	 * Creates a reservation on a flight whose seat has already been taken and
+	 * adds it to the reservations.
+	 * 
+	 * @param flight      - Flight to book reservation for
+	 * @param name        - Name of person
+	 * @param citizenship - Citizenship of person
+	 * @return Created reservation instance
+	 * @throws NullFlightException         - Thrown if flight is null
+	 * @throws InvalidNameException        - Thrown if name is null, empty or too long
+	 * @throws InvalidCitizenshipException - Thrown if citizenship is null, empty or too long
+	 * @throws NoMoreReservationCodesException - Thrown if every reservation code
+	 *                                         for the flight is in use
+	 */
+	private Reservation createReservation(Flight flight, String name, String citizenship)
+			throws InvalidNameException, InvalidCitizenshipException, NullFlightException,
+			NoMoreReservationCodesException {
 		String code = generateReservationCode(flight);
 		String flightCode = flight.getCode();
 		String airline = flight.getAirlineName();
 		double cost = flight.getCostPerSeat();
 		boolean active = true;
 
-		Reservation reservation = new Reservation(code, flightCode, airline, name, citizenship, cost, active);
-		reservations.add(reservation);
-		persist();
+		Reservation reservation = null;
+		try {
+			reservation = new Reservation(code, flightCode, airline, name, citizenship, cost, active);
+		} finally {
+			if (reservation == null) {
+				reservationCodes.release(code);
+			}
+		}
+
+		rewriteLock.readLock().lock();
+		try {
+			// Hybrid delete: the new reservation overwrites an inactive one if there is one.
+			int slot = takeFreeSlot();
+			synchronized (this) {
+				reservation.setSlot(slot);
+				addReservation(reservation);
+			}
+		} finally {
+			rewriteLock.readLock().unlock();
+		}
 		return reservation;
 	}
 
+	/**
+	 * Makes a reservation active or inactive. The reservation goes through the
+	 * Manager as its owner, which updates the seats taken on its flight, so this
+	 * is the same as Reservation.setActive. Persist the reservation afterwards.
+	 * 
+	 * @param reservation - Reservation to change
+	 * @param active      - True to hold a seat, false to give it back
+	 * @throws NoMoreSeatsException Thrown if the reservation is made active again
+	 *                              on a flight that is booked up
+	 * @throws IllegalStateException Thrown if the reservation has been removed
+	 */
+	public void setActive(Reservation reservation, boolean active) throws NoMoreSeatsException {
+		await(reservationsLoaded);
+		reservation.setActive(active);
+	}
+
+	/**
+	 * Renames the traveler of a reservation. The reservation goes through the
+	 * Manager as its owner, which moves it in the name searches, so this is the
+	 * same as Reservation.setName. Persist the reservation afterwards.
+	 * 
+	 * @param reservation - Reservation to change
+	 * @param name        - New name of traveler
+	 * @throws InvalidNameException  Thrown if name is null, empty or too long
+	 * @throws IllegalStateException Thrown if the reservation has been removed
+	 */
+	public void setName(Reservation reservation, String name) throws InvalidNameException {
+		await(reservationsLoaded);
+		reservation.setName(name);
+	}
+
+	/**
+	 * Owner of every reservation of the Manager. Changes to a reservation's
+	 * status or name run under the lock of its flight and update the seat counts
+	 * and search indexes with it.
+	 */
+	private class Owner implements ReservationOwner {
+
+		@Override
+		public void setActive(Reservation reservation, boolean active, Runnable change) throws NoMoreSeatsException {
+			Flight flight = findFlightByCode(reservation.getFlightCode());
+			ReentrantLock lock = flightLock(reservation.getFlightCode());
+			rewriteLock.readLock().lock();
+			lock.lock();
+			try {
+				checkNotRemoved(reservation);
+				if (reservation.isActive() == active) {
+					return;
+				}
+				if (active && flight == null) {
+					seats.take(reservation.getFlightCode());
+				} else if (active) {
+					if (!seats.reserve(flight)) {
+						throw new NoMoreSeatsException();
+					}
+				} else {
+					seats.release(reservation.getFlightCode());
+				}
+				queryEngine.setActive(reservation, active, change);
+			} finally {
+				lock.unlock();
+				rewriteLock.readLock().unlock();
+			}
+		}
+
+		@Override
+		public void rename(Reservation reservation, String name, Runnable change) {
+			ReentrantLock lock = flightLock(reservation.getFlightCode());
+			rewriteLock.readLock().lock();
+			lock.lock();
+			try {
+				checkNotRemoved(reservation);
+				queryEngine.rename(reservation, name, change);
+			} finally {
+				lock.unlock();
+				rewriteLock.readLock().unlock();
+			}
+		}
+	}
+
 	/**
 	 * Finds reservations containing either reservation code or airline
 	 * 
@@ -146,183 +589,485 @@ public class Manager {
 	 * @return Any matching Reservation objects.
 	 */
 	public ArrayList<Reservation> findReservations(String reservationCode, String airline, String name) {
+		await(reservationsLoaded);
 		ArrayList<Reservation> r = new ArrayList<Reservation>();
 		if (reservationCode.contentEquals("") && airline.contentEquals("") && name.contentEquals("")) {
 			return r;
 		}
-		for (Reservation reservation : reservations) {
-			if (reservation.getCode().contains(reservationCode) && reservation.getAirline().contains(airline)
-					&& reservation.getName().contains(name)) {
-				r.add(reservation);
-			} else {
-				continue;
-			}
-		}
-		return r;
+		return queryEngine.find(new ReservationQuery(reservationCode, airline, name, null, null));
+	}
+
+	/**
+	 * Finds reservations matching every criterion of a query. The search reads
+	 * the most selective index for the query; explain() shows which.
+	 * 
+	 * @param query - Search criteria
+	 * @return Any matching Reservation objects, oldest first.
+	 */
+	public ArrayList<Reservation> findReservations(ReservationQuery query) {
+		await(reservationsLoaded);
+		return queryEngine.find(query);
+	}
+
+	/**
+	 * Describes how findReservations would run a query, to see why a search
+	 * is slow.
+	 * 
+	 * @param query - Search criteria
+	 * @return Plan as text: the index read, its estimated size, the filter and
+	 *         the other indexes considered.
+	 */
+	public String explain(ReservationQuery query) {
+		await(reservationsLoaded);
+		return queryEngine.explain(query);
 	}
 
 	/**
 	 * Finds reservation with the exact reservation code
 	 * 
 	 * @param reservationCode - Reservation code.
-	 * @return Reservation object or null if none found.
+	 * @return Reservation object or null if none found. If several reservations
+	 *         share the code, the oldest one.
 	 */
 	public Reservation findReservationByCode(String reservationCode) {
-		for (Reservation reservation : reservations) {
-			if (reservation.getCode() == reservationCode) {
-				return reservation;
-			} else {
-				continue;
-			}
-		}
-		return null;
+		ArrayList<Reservation> found = findReservationsByCode(reservationCode);
+		return found.isEmpty() ? null : found.get(0);
 	}
 
 	/**
-	 * Gets the number of available seats for a flight
+	 * Finds every reservation with the exact reservation code. Reservation codes
+	 * are random, so more than one reservation may have the same code.
 	 * 
-	 * @param flight - Flight instance
-	 * @return Number of available seats
+	 * @param reservationCode - Reservation code.
+	 * @return ArrayList of the Reservation objects with the code, oldest first.
 	 */
-	private int getAvailableSeats(Flight flight) {
-		int used = 0;
-		for (Reservation reservation : reservations) {
-			if (reservation.isActive() && reservation.getFlightCode().equals(flight)) {
-				++used;
-			} else {
-				continue;
-			}
-		}
-		return flight.getSeats() - used;
+	public ArrayList<Reservation> findReservationsByCode(String reservationCode) {
+		await(reservationsLoaded);
+		List<Reservation> found = reservationsByCode.get(reservationCode);
+		return found == null ? new ArrayList<Reservation>() : new ArrayList<Reservation>(found);
 	}
 
 	/**
-	 * Gets reservation code using a flight
+	 * Gets an unused reservation code for a flight
 	 * 
 	 * @param flight - Flight instance
 	 * @return Reservation code
+	 * @throws NoMoreReservationCodesException Thrown if every code with the
+	 *                                         flight's prefix is in use
 	 */
-	private String generateReservationCode(Flight flight) {
-		String first;
+	private String generateReservationCode(Flight flight) throws NoMoreReservationCodesException {
+		char first;
 		if (flight.isDomestic()) {
-			first = "D";
+			first = ReservationCodeAllocator.DOMESTIC;
 		} else {
-			first = "I";
+			first = ReservationCodeAllocator.INTERNATIONAL;
 		}
-		Random rand = new Random();
-		return String.format("%s%d", first, rand.nextInt(9999) + 1000);
+		return reservationCodes.allocate(first);
+	}
+
+	/**
+	 * Populates airports from airports.csv.
+	 * 
+	 * @throws IOException Thrown when the file could not be accessed.
+	 */
+	private void populateAirports() throws IOException {
+		FlightCatalog catalog = FlightCatalog.readAirports(AIRPORTS_FILE);
+		airports = new AirportCatalog(catalog.getAirportCodes(), catalog.getAirportNames());
 	}
 
 	/**
-	 * Populates flights from text file
+	 * Populates flights from the flight catalog, which is compiled from the CSV
+	 * files when they change, and indexes them by route and code.
 	 * 
 	 * @throws IOException Thrown when the file could not be accessed.
 	 */
 	private void populateFlights() throws IOException {
+		boolean parallel = "parallel".equals(System.getProperty(LOAD_PROPERTY, "serial"));
+		FlightCatalog catalog = FlightCatalog.open(FLIGHTS_FILE, AIRPORTS_FILE, CATALOG_FILE, parallel);
+		flights = Collections.unmodifiableList(catalog.getFlights());
+		routeIndex = new RouteIndex(flights);
+		connections = new ConnectionIndex(flights);
+		fareIndex = new FareIndex(flights);
+		flightColumns = new FlightColumns(flights);
+		for (Flight flight : flights) {
+			flightsByCode.putIfAbsent(flight.getCode(), flight);
+		}
+	}
+
+	/**
+	 * Loading step of a startup stage.
+	 */
+	private interface Stage {
+		void load() throws Exception;
+	}
 
-		File flight = new File("res/flights.csv");
-		Scanner inFile = new Scanner(flight);
-
-		while (inFile.hasNextLine()) {
-			String line = inFile.nextLine();
-			String[] seperateLine = line.split(",");
-			String code = seperateLine[0];
-			String from = seperateLine[1];
-			String to = seperateLine[2];
-			String weekday = seperateLine[3];
-			String time = seperateLine[4];
-			int seats = Integer.parseInt(seperateLine[5]);
-			double costPerSeat = Double.parseDouble(seperateLine[6]);
-			String airline = "";
-
-			if (code.startsWith("OA")) {
-				airline = "Otto Airlines";
-			} else if (code.startsWith("CA")) {
-				airline = "Conned Air";
-			} else if (code.startsWith("TB")) {
-				airline = "Try a Bus Airways";
-			} else if (code.startsWith("VA")) {
-				airline = "Verical Airways";
-			} else {
-				airline = "Unidentified Flying Object";
+	/**
+	 * Runs a startup stage on a bootstrap thread and, with TIMING_PROPERTY set,
+	 * prints how long it took.
+	 * 
+	 * @param name    - Name of the stage
+	 * @param started - System.nanoTime() when the Manager was created
+	 * @param stage   - Loading step
+	 * @return Future completing when the stage is done.
+	 */
+	private CompletableFuture<Void> startStage(String name, long started, Stage stage) {
+		return CompletableFuture.runAsync(() -> {
+			long begin = System.nanoTime();
+			try {
+				stage.load();
+			} catch (Exception e) {
+				e.printStackTrace();
+				throw new CompletionException(e);
+			}
+			long end = System.nanoTime();
+			if (Boolean.getBoolean(TIMING_PROPERTY)) {
+				System.out.printf("Startup: %s loaded in %.1f ms, ready %.1f ms after start%n", name, (end - begin) / 1e6,
+						(end - started) / 1e6);
 			}
+		}, bootstrap);
+	}
+
+	/**
+	 * Waits for a startup stage.
+	 * 
+	 * @param stage - Stage to wait for
+	 * @throws IllegalStateException Thrown if the stage failed.
+	 */
+	private static void await(CompletableFuture<Void> stage) {
+		try {
+			stage.join();
+		} catch (CompletionException e) {
+			throw new IllegalStateException("Startup stage failed", e.getCause());
+		}
+	}
 
-			Flight f = new Flight(code, airline, from, to, weekday, time, seats, costPerSeat);
-			flights.add(f);
+	/**
+	 * Saves all records in memory to hard drive
+	 */
+	public void persist() {
+		await(reservationsLoaded);
+		try {
+			writeQueue.runExclusive(() -> {
+				rewriteLock.writeLock().lock();
+				try {
+					synchronized (this) {
+						reservationStore.writeAll(new ArrayList<Reservation>(reservations));
+						rebuildFreeSlots();
+					}
+				} finally {
+					rewriteLock.writeLock().unlock();
+				}
+				return null;
+			});
+		} catch (Exception e) {
+			e.printStackTrace();
 		}
-		inFile.close();
 	}
 
 	/**
-	 * Populates airports with the airports from CSV file.
+	 * Queues one reservation to be saved to hard drive by the writer thread. A
+	 * new reservation is appended to the file and a changed reservation
+	 * overwrites its own record.
 	 * 
-	 * @throws IOException Thrown when the file could not be accessed.
+	 * @param reservation - Reservation to save
+	 * @return Future completing with the reservation once it is saved.
+	 * @throws IllegalStateException Thrown if the reservation has been removed
 	 */
-	private void populateAirports() throws IOException {
-		File air = new File("res/airports.csv");
-		Scanner inFile = new Scanner(air);
-		while (inFile.hasNextLine()) {
-			String line = inFile.nextLine();
-			String[] seperateLine = line.split(",");
-			String airport = seperateLine[0];
-			String fullName = seperateLine[1];
-			airports.add(airport);
+	public CompletableFuture<Reservation> persist(Reservation reservation) {
+		await(reservationsLoaded);
+		checkNotRemoved(reservation);
+		CompletableFuture<Reservation> saved = writeQueue.submit(reservation);
+		saved.thenAccept(r -> {
+			if (!r.isActive()) {
+				try {
+					releaseSlot(r);
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
+			}
+		});
+		return saved;
+	}
+
+	/**
+	 * Gets a future that completes once everything queued for a reservation has
+	 * been saved to hard drive.
+	 * 
+	 * @param reservation - Reservation to check
+	 * @return Future completing with the reservation once it is saved.
+	 */
+	public CompletableFuture<Reservation> whenPersisted(Reservation reservation) {
+		await(reservationsLoaded);
+		return writeQueue.whenSaved(reservation);
+	}
+
+	/**
+	 * Saves any queued reservations and closes the reservation files. Runs
+	 * automatically when the program exits.
+	 */
+	public void close() {
+		try {
+			reservationsLoaded.join();
+		} catch (CompletionException e) {
+			return;
+		}
+		try {
+			writeQueue.close();
+			reservationStore.close();
+			freeSlots.close();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (IOException e) {
+			e.printStackTrace();
 		}
-		inFile.close();
 	}
 
 	/**
-	 * Saves records in memory to hard drive
+	 * Starts rewriting the reservation file without the inactive reservations in
+	 * the background. The remaining reservations get consecutive slots and the
+	 * inactive ones are removed from memory. Searches keep running while the file
+	 * is rewritten; new reservations and updates wait until it is done.
+	 * 
+	 * @return Future holding the number of reservations removed.
 	 */
-	public void persist() {
+	public Future<Integer> compact() {
+		await(reservationsLoaded);
+		return compactor.submit(() -> writeQueue.runExclusive(() -> {
+			rewriteLock.writeLock().lock();
+			try {
+				synchronized (this) {
+					ArrayList<Reservation> active = new ArrayList<Reservation>();
+					ArrayList<Reservation> dropped = new ArrayList<Reservation>();
+					ConcurrentHashMap<String, List<Reservation>> activeByCode = new ConcurrentHashMap<String, List<Reservation>>();
+					for (Reservation reservation : reservations) {
+						if (reservation.isActive()) {
+							active.add(reservation);
+							index(activeByCode, reservation);
+						} else {
+							dropped.add(reservation);
+						}
+					}
+					reservationStore.writeAll(active);
+
+					// Only drop the inactive reservations once the rewrite has succeeded.
+					for (Reservation reservation : dropped) {
+						writeQueue.discard(reservation);
+						reservation.detach();
+					}
+					int removed = dropped.size();
+					reservations = new LinkedHashSet<Reservation>(active);
+					for (String code : reservationsByCode.keySet()) {
+						if (!activeByCode.containsKey(code)) {
+							reservationCodes.release(code);
+						}
+					}
+					reservationsByCode = activeByCode;
+					queryEngine = new ReservationQueryEngine(active);
+					rebuildFreeSlots();
+					return removed;
+				}
+			} finally {
+				rewriteLock.writeLock().unlock();
+			}
+		}));
+	}
+
+	/**
+	 * Adds a reservation to the reservations and the code and search indexes
+	 * and marks its code used. Call while synchronized on the Manager.
+	 * 
+	 * @param reservation - Reservation to add
+	 */
+	private void addReservation(Reservation reservation) {
+		reservation.setOwner(owner);
+		reservations.add(reservation);
+		index(reservationsByCode, reservation);
+		queryEngine.add(reservation);
+		reservationCodes.markUsed(reservation.getCode());
+	}
+
+	/**
+	 * Removes a reservation from the reservations and the indexes. Its code
+	 * may be handed out again once no reservation has it. Call while
+	 * synchronized on the Manager.
+	 * 
+	 * @param reservation - Reservation to remove
+	 */
+	private void removeReservation(Reservation reservation) {
+		reservations.remove(reservation);
+		queryEngine.remove(reservation);
+		reservationsByCode.computeIfPresent(reservation.getCode(), (code, sameCode) -> {
+			ArrayList<Reservation> rest = new ArrayList<Reservation>(sameCode);
+			rest.remove(reservation);
+			return rest.isEmpty() ? null : Collections.unmodifiableList(rest);
+		});
+		if (!reservationsByCode.containsKey(reservation.getCode())) {
+			reservationCodes.release(reservation.getCode());
+		}
+	}
+
+	/**
+	 * Adds a reservation to a code index, replacing the list of its code.
+	 * 
+	 * @param byCode      - Code index
+	 * @param reservation - Reservation to add
+	 */
+	private static void index(ConcurrentHashMap<String, List<Reservation>> byCode, Reservation reservation) {
+		byCode.merge(reservation.getCode(), Collections.singletonList(reservation), (sameCode, added) -> {
+			ArrayList<Reservation> all = new ArrayList<Reservation>(sameCode);
+			all.addAll(added);
+			return Collections.unmodifiableList(all);
+		});
+	}
+
+	/**
+	 * Gets the lock stripe of a flight.
+	 * 
+	 * @param flightCode - Flight code
+	 * @return Lock shared by the flights whose codes hash to the same stripe.
+	 */
+	private ReentrantLock flightLock(String flightCode) {
+		int hash = flightCode.hashCode();
+		return flightLocks[(hash ^ (hash >>> 16)) & (LOCK_STRIPES - 1)];
+	}
+
+	/**
+	 * Checks that a reservation is still one of the reservations.
+	 * 
+	 * @param reservation - Reservation to check
+	 * @throws IllegalStateException Thrown if the reservation has been removed
+	 */
+	private static void checkNotRemoved(Reservation reservation) {
+		if (reservation.isRemoved()) {
+			throw new IllegalStateException("Reservation " + reservation.getCode() + " has been removed");
+		}
+	}
+
+	/**
+	 * Adds the slot of an inactive reservation to the free list unless it is
+	 * already listed. A removed reservation is ignored, since its old slot may
+	 * belong to another reservation by now.
+	 * 
+	 * @param reservation - Inactive reservation with a slot
+	 * @throws IOException Thrown when the free list could not be accessed.
+	 */
+	private synchronized void releaseSlot(Reservation reservation) throws IOException {
+		if (!reservation.isRemoved() && reservation.getSlot() >= 0
+				&& !freeReservations.containsKey(reservation.getSlot())) {
+			freeSlots.push(reservation.getSlot());
+			freeReservations.put(reservation.getSlot(), reservation);
+		}
+	}
+
+	/**
+	 * Takes an inactive reservation off the free list, removes it from the
+	 * reservations and detaches it from its slot. Slots whose reservation has
+	 * been made active again since it was listed are skipped. The reservation's
+	 * flight is locked while it is checked so that it cannot be changed at the
+	 * same time.
+	 * 
+	 * @return Slot of the removed reservation or -1 if there is none.
+	 */
+	private int takeFreeSlot() {
+		Reservation reservation;
+		while ((reservation = popFreeReservation()) != null) {
+			ReentrantLock lock = flightLock(reservation.getFlightCode());
+			lock.lock();
+			try {
+				if (!reservation.isActive() && !reservation.isRemoved()) {
+					synchronized (this) {
+						removeReservation(reservation);
+					}
+					int slot = reservation.getSlot();
+					reservation.detach();
+					return slot;
+				}
+			} finally {
+				lock.unlock();
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Pops the next listed slot off the free list.
+	 * 
+	 * @return Reservation listed for the slot or null if the list is empty.
+	 */
+	private synchronized Reservation popFreeReservation() {
 		try {
-			RandomAccessFile r = new RandomAccessFile("res/Reservations.bin", "rw");
-			for (Reservation reservation : reservations) {
-				r.writeUTF(String.format("%-7s", reservation.getCode()));
-				r.writeUTF(String.format("%-7s", reservation.getFlightCode()));
-				r.writeUTF(String.format("%-30s", reservation.getAirline()));
-				r.writeUTF(String.format("%-50s", reservation.getName()));
-				r.writeUTF(String.format("%-50s", reservation.getCitizenship()));
-				r.writeBoolean(reservation.isActive());
+			int slot;
+			while ((slot = freeSlots.pop()) >= 0) {
+				Reservation reservation = freeReservations.remove(slot);
+				if (reservation != null) {
+					return reservation;
+				}
 			}
-			r.close();
 		} catch (IOException e) {
 			e.printStackTrace();
 		}
+		return null;
+	}
+
+	/**
+	 * Lists the slots of the inactive reservations. Called after the store has
+	 * assigned new slots.
+	 * 
+	 * @throws IOException Thrown when the free list could not be accessed.
+	 */
+	private void rebuildFreeSlots() throws IOException {
+		freeSlots.clear();
+		freeReservations.clear();
+		for (Reservation reservation : reservations) {
+			if (!reservation.isActive()) {
+				releaseSlot(reservation);
+			}
+		}
 	}
+
+	/**
+	 * Opens the reservation store for a persistence mode.
+	 * 
+	 * @param mode - "file", "journal" or "mapped"
+	 * @return ReservationStore for the reservation file.
+	 * @throws IOException Thrown when the file could not be accessed.
+	 */
+	private static ReservationStore openStore(String mode) throws IOException {
+		if (mode.equals("journal")) {
+			return new JournaledReservationStore(RESERVATIONS_FILE, RESERVATIONS_JOURNAL);
+		} else if (mode.equals("mapped")) {
+			return new MappedReservationStore(RESERVATIONS_FILE);
+		}
+		return new ReservationFile(RESERVATIONS_FILE);
+	}
+
 	/**
 	 * Populates reservations with Reservation objects from Random Access File
 	 */
 	private void populateFromBinary() {
 		try {
-			RandomAccessFile r = new RandomAccessFile("res/Reservations.bin", "rw");
-			for (int i = 0; i < r.length(); i += 171) {
-				String res = r.readUTF();
-				String flightCode = r.readUTF();
-				String airline = r.readUTF().trim();
-				String name = r.readUTF().trim();
-				String citizenship = r.readUTF().trim();
-				double cost = r.readDouble();
-				boolean active = r.readBoolean();
+			for (Reservation reservation : reservationStore.readAll()) {
+				addReservation(reservation);
+			}
 
-				try {
-					Reservation reservation = new Reservation(res, flightCode, airline, name, citizenship, cost,
-							active);
-					reservations.add(reservation);
-					continue;
-				} catch (InvalidNameException e) {
-					e.printStackTrace();
-					continue;
-				} catch (InvalidCitizenshipException e) {
-					e.printStackTrace();
-					continue;
-				} catch (NullFlightException e) {
-					e.printStackTrace();
+			// Keep the saved free list and add any inactive reservation missing from it.
+			HashMap<Integer, Reservation> bySlot = new HashMap<Integer, Reservation>();
+			for (Reservation reservation : reservations) {
+				bySlot.put(reservation.getSlot(), reservation);
+			}
+			for (int slot : freeSlots.readAll()) {
+				Reservation reservation = bySlot.get(slot);
+				if (reservation != null && !reservation.isActive()) {
+					freeReservations.put(slot, reservation);
 				}
 			}
-			r.close();
-		} catch (IOException e1) {
-			e1.printStackTrace();
+			for (Reservation reservation : reservations) {
+				if (!reservation.isActive()) {
+					releaseSlot(reservation);
+				}
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
 		}
 	}
 
@@ -0,0 +1,192 @@
+package sait.frs.manager;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.file.*;
+import java.util.*;
+import sait.frs.exception.*;
+import sait.frs.problemdomain.*;
+
+/**
+ * Reservation store that maps the reservation file into memory.
+ *
+ * Records are encoded straight into the mapping when they are written and
+ * readAll() decodes them straight from it, with no copy through a read or
+ * write buffer. Like every store, it is read in full when the Manager starts. The mapping grows GROWTH_SLOTS records at a time; the slot count in
+ * the header tells readers where the used records end.
+ *
+ * Each write forces the pages it changed to the file before it returns, and a
+ * batch forces them once at the end, so a saved reservation survives a crash
+ * as it does with ReservationFile.
+ */
+public class MappedReservationStore implements ReservationStore {
+
+	private static final int GROWTH_SLOTS = 65536;
+
+	private String path;
+	private FileChannel channel;
+	private MappedByteBuffer map;
+	private int slots;
+	private int cutRecords;
+	private int skippedRecords;
+
+	/**
+	 * Opens and maps the reservation file, creating it if it does not exist.
+	 *
+	 * @param path - Location of the reservation file
+	 * @throws IOException Thrown when the file could not be accessed or is not a
+	 *                     reservation file.
+	 */
+	public MappedReservationStore(String path) throws IOException {
+		// Let ReservationFile create, check or convert the header first.
+		ReservationFile file = new ReservationFile(path);
+		cutRecords = file.getCorruptCount();
+		file.close();
+
+		this.path = path;
+		mapFile();
+	}
+
+	@Override
+	public synchronized ArrayList<Reservation> readAll() throws IOException {
+		ArrayList<Reservation> reservations = new ArrayList<Reservation>(slots);
+		skippedRecords = 0;
+		for (int slot = 0; slot < slots; slot++) {
+			if (!ReservationFile.isIntact(recordAt(slot))) {
+				++skippedRecords;
+				continue;
+			}
+			try {
+				Reservation reservation = ReservationFile.decode(recordAt(slot));
+				reservation.setSlot(slot);
+				reservations.add(reservation);
+			} catch (InvalidNameException e) {
+				e.printStackTrace();
+			} catch (InvalidCitizenshipException e) {
+				e.printStackTrace();
+			} catch (NullFlightException e) {
+				e.printStackTrace();
+			}
+		}
+		return reservations;
+	}
+
+	@Override
+	public synchronized int getCorruptCount() {
+		return cutRecords + skippedRecords;
+	}
+
+	@Override
+	public synchronized void append(Reservation reservation) throws IOException {
+		appendRecord(reservation);
+		force(reservation.getSlot());
+	}
+
+	@Override
+	public synchronized void write(Reservation reservation) throws IOException {
+		writeRecord(reservation);
+		force(reservation.getSlot());
+	}
+
+	@Override
+	public synchronized void writeBatch(List<Reservation> reservations) throws IOException {
+		for (Reservation reservation : reservations) {
+			synchronized (reservation) {
+				if (reservation.isRemoved()) {
+					continue;
+				} else if (reservation.getSlot() < 0) {
+					appendRecord(reservation);
+				} else {
+					writeRecord(reservation);
+				}
+			}
+		}
+		map.force();
+	}
+
+	@Override
+	public synchronized void writeAll(List<Reservation> reservations) throws IOException {
+		map.force();
+		channel.close();
+		try {
+			ReservationFile.writeSnapshot(path, reservations);
+		} finally {
+			mapFile();
+		}
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		map.force();
+		channel.close();
+	}
+
+	/**
+	 * Encodes a new reservation into the next slot without forcing it.
+	 */
+	private void appendRecord(Reservation reservation) throws IOException {
+		reserve(slots + 1);
+		reservation.setSlot(slots);
+		ReservationFile.encode(reservation, recordAt(slots));
+		setSlotCount(slots + 1);
+	}
+
+	/**
+	 * Encodes a reservation over its own record without forcing it.
+	 */
+	private void writeRecord(Reservation reservation) {
+		ReservationFile.encode(reservation, recordAt(reservation.getSlot()));
+	}
+
+	/**
+	 * Forces the header and the record in one slot to the file.
+	 */
+	private void force(int slot) {
+		map.force(0, ReservationFile.HEADER_SIZE);
+		map.force((int) ReservationFile.offsetOf(slot), ReservationFile.RECORD_SIZE);
+	}
+
+	/**
+	 * Opens and maps the whole file.
+	 */
+	private void mapFile() throws IOException {
+		channel = FileChannel.open(Paths.get(path), StandardOpenOption.READ, StandardOpenOption.WRITE);
+		map = channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size());
+		slots = map.getInt(ReservationFile.SLOT_COUNT_OFFSET);
+	}
+
+	/**
+	 * Gets a view of the mapping positioned at the start of a record.
+	 */
+	private ByteBuffer recordAt(int slot) {
+		ByteBuffer record = map.duplicate();
+		record.position((int) ReservationFile.offsetOf(slot));
+		record.limit(record.position() + ReservationFile.RECORD_SIZE);
+		return record;
+	}
+
+	/**
+	 * Stores a new slot count in the header.
+	 */
+	private void setSlotCount(int slots) {
+		this.slots = slots;
+		map.putInt(ReservationFile.SLOT_COUNT_OFFSET, slots);
+	}
+
+	/**
+	 * Grows the file and the mapping so that it holds at least the given number
+	 * of slots.
+	 */
+	private void reserve(int capacity) throws IOException {
+		if (ReservationFile.offsetOf(capacity) <= map.capacity()) {
+			return;
+		}
+		long size = ReservationFile.offsetOf(capacity + GROWTH_SLOTS);
+		if (size > Integer.MAX_VALUE) {
+			throw new IOException("Reservation file is too large to map");
+		}
+		map.force();
+		map = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+	}
+}
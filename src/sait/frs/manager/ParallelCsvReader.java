@@ -0,0 +1,199 @@
+package sait.frs.manager;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import sait.frs.exception.*;
+
+/**
+ * Parses a comma separated file on a ForkJoinPool.
+ *
+ * The file is cut into ranges of about RANGE_SIZE bytes, each moved forward
+ * to the start of the next line. Ranges are split in halves recursively and
+ * each range is parsed by its own CsvReader. Results are joined left half
+ * first, so they come back in file order no matter which worker finished
+ * first.
+ */
+public class ParallelCsvReader {
+
+	private static final long RANGE_SIZE = 4 * 1024 * 1024;
+
+	/**
+	 * Turns one line into a value.
+	 */
+	public interface RowParser<T> {
+
+		/**
+		 * Parses a line.
+		 *
+		 * @param row - Fields of the line
+		 * @return Value of the line
+		 * @throws IOException Thrown if the line is malformed.
+		 */
+		T parse(CsvReader.Row row) throws IOException;
+	}
+
+	/**
+	 * Parses every line of a file.
+	 *
+	 * @param path   - Location of the file
+	 * @param parser - Parses each line
+	 * @param pool   - Pool running the ranges
+	 * @return ArrayList of the parsed values in file order.
+	 * @throws IOException Thrown when the file could not be read or a line is
+	 *                     malformed. Line numbers count from the start of the
+	 *                     file.
+	 */
+	public static <T> ArrayList<T> read(String path, RowParser<T> parser, ForkJoinPool pool) throws IOException {
+		try (FileChannel channel = FileChannel.open(Paths.get(path), StandardOpenOption.READ)) {
+			long[] bounds = lineBounds(channel, RANGE_SIZE);
+			try {
+				return pool.invoke(new RangeTask<T>(path, channel, bounds, 0, bounds.length - 1, parser));
+			} catch (UncheckedIOException e) {
+				throw withFileLine(channel, bounds, e.getCause());
+			}
+		}
+	}
+
+	/**
+	 * Gets range boundaries that fall at the start of a line.
+	 *
+	 * @return Positions starting with 0 and ending with the file size.
+	 */
+	private static long[] lineBounds(FileChannel channel, long rangeSize) throws IOException {
+		long size = channel.size();
+		ArrayList<Long> bounds = new ArrayList<Long>();
+		bounds.add(0L);
+		ByteBuffer buffer = ByteBuffer.allocate(4096);
+		long position = rangeSize;
+
+		while (position < size) {
+			long lineStart = -1;
+			while (lineStart < 0 && position < size) {
+				buffer.clear();
+				int read = channel.read(buffer, position);
+				if (read <= 0) {
+					break;
+				}
+				for (int i = 0; i < read; i++) {
+					if (buffer.get(i) == '\n') {
+						lineStart = position + i + 1;
+						break;
+					}
+				}
+				if (lineStart < 0) {
+					position += read;
+				}
+			}
+			if (lineStart < 0 || lineStart >= size) {
+				break;
+			}
+			bounds.add(lineStart);
+			position = lineStart + rangeSize;
+		}
+		bounds.add(size);
+
+		long[] result = new long[bounds.size()];
+		for (int i = 0; i < result.length; i++) {
+			result[i] = bounds.get(i);
+		}
+		return result;
+	}
+
+	/**
+	 * Ranges only know their line numbers relative to their own start, so a
+	 * format error is renumbered by counting the lines before its range. This
+	 * only happens on the error path.
+	 */
+	private static IOException withFileLine(FileChannel channel, long[] bounds, IOException e) throws IOException {
+		if (!(e instanceof RangeFormatException)) {
+			return e;
+		}
+		RangeFormatException error = (RangeFormatException) e;
+		CsvFormatException cause = error.getCause();
+		long start = bounds[error.range];
+		long lines = 0;
+		ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+		for (long position = 0; position < start;) {
+			buffer.clear();
+			buffer.limit((int) Math.min(buffer.capacity(), start - position));
+			int read = channel.read(buffer, position);
+			if (read <= 0) {
+				break;
+			}
+			for (int i = 0; i < read; i++) {
+				if (buffer.get(i) == '\n') {
+					++lines;
+				}
+			}
+			position += read;
+		}
+		return new CsvFormatException(cause.getFile(), lines + cause.getLineNumber(), cause.getProblem());
+	}
+
+	/**
+	 * Format error in a range, remembering which range it came from.
+	 */
+	private static class RangeFormatException extends IOException {
+
+		private int range;
+
+		RangeFormatException(int range, CsvFormatException cause) {
+			super(cause);
+			this.range = range;
+		}
+
+		@Override
+		public synchronized CsvFormatException getCause() {
+			return (CsvFormatException) super.getCause();
+		}
+	}
+
+	/**
+	 * Parses the ranges from first up to but not including last.
+	 */
+	private static class RangeTask<T> extends RecursiveTask<ArrayList<T>> {
+
+		private String path;
+		private FileChannel channel;
+		private long[] bounds;
+		private int first;
+		private int last;
+		private RowParser<T> parser;
+
+		RangeTask(String path, FileChannel channel, long[] bounds, int first, int last, RowParser<T> parser) {
+			this.path = path;
+			this.channel = channel;
+			this.bounds = bounds;
+			this.first = first;
+			this.last = last;
+			this.parser = parser;
+		}
+
+		@Override
+		protected ArrayList<T> compute() {
+			if (last - first > 1) {
+				int middle = (first + last) >>> 1;
+				RangeTask<T> left = new RangeTask<T>(path, channel, bounds, first, middle, parser);
+				RangeTask<T> right = new RangeTask<T>(path, channel, bounds, middle, last, parser);
+				right.fork();
+				ArrayList<T> values = left.compute();
+				values.addAll(right.join());
+				return values;
+			}
+
+			ArrayList<T> values = new ArrayList<T>();
+			try {
+				new CsvReader(path).read(channel, bounds[first], bounds[last], 1, row -> values.add(parser.parse(row)));
+			} catch (CsvFormatException e) {
+				throw new UncheckedIOException(new RangeFormatException(first, e));
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+			return values;
+		}
+	}
+}
@@ -0,0 +1,125 @@
+package sait.frs.manager;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import sait.frs.exception.*;
+
+/**
+ * Hands out unused reservation codes.
+ *
+ * A reservation code is a letter, D for domestic or I for international,
+ * followed by four digits from 1000 to 9999. Each letter has a bitmap with
+ * one bit per code, set while the code is in use. allocate() starts at a
+ * random word of the bitmap and sets the first clear bit it finds with a
+ * compare-and-set, so threads rarely touch the same word and never wait for a
+ * lock. A full bitmap is only 141 words, so even a nearly full prefix is
+ * searched in constant time.
+ */
+public class ReservationCodeAllocator {
+
+	public static final char DOMESTIC = 'D';
+	public static final char INTERNATIONAL = 'I';
+
+	private static final int FIRST_NUMBER = 1000;
+	private static final int CODES = 9000;
+	private static final int WORDS = (CODES + 63) / 64;
+
+	private AtomicLongArray domestic = new AtomicLongArray(WORDS);
+	private AtomicLongArray international = new AtomicLongArray(WORDS);
+
+	/**
+	 * Gets an unused code and marks it in use.
+	 *
+	 * @param prefix - DOMESTIC or INTERNATIONAL
+	 * @return Reservation code
+	 * @throws NoMoreReservationCodesException Thrown if every code with the
+	 *                                         prefix is in use.
+	 */
+	public String allocate(char prefix) throws NoMoreReservationCodesException {
+		AtomicLongArray bits = bitsOf(prefix);
+		int start = ThreadLocalRandom.current().nextInt(WORDS);
+		for (int i = 0; i < WORDS; i++) {
+			int word = (start + i) % WORDS;
+			long used = bits.get(word);
+			long free;
+			while ((free = ~used & validBits(word)) != 0) {
+				long bit = Long.lowestOneBit(free);
+				if (bits.compareAndSet(word, used, used | bit)) {
+					int number = FIRST_NUMBER + word * 64 + Long.numberOfTrailingZeros(bit);
+					return prefix + Integer.toString(number);
+				}
+				used = bits.get(word);
+			}
+		}
+		throw new NoMoreReservationCodesException(prefix);
+	}
+
+	/**
+	 * Marks a code in use, such as the code of a reservation read from the
+	 * reservation file. Codes not in the LDDDD format are ignored.
+	 *
+	 * @param code - Reservation code
+	 */
+	public void markUsed(String code) {
+		int index = indexOf(code);
+		if (index >= 0) {
+			bitsOf(code.charAt(0)).getAndAccumulate(index / 64, 1L << (index % 64), (used, bit) -> used | bit);
+		}
+	}
+
+	/**
+	 * Marks a code unused so that it can be handed out again.
+	 *
+	 * @param code - Reservation code
+	 */
+	public void release(String code) {
+		int index = indexOf(code);
+		if (index >= 0) {
+			bitsOf(code.charAt(0)).getAndAccumulate(index / 64, ~(1L << (index % 64)), (used, mask) -> used & mask);
+		}
+	}
+
+	/**
+	 * Gets the bitmap of a prefix.
+	 */
+	private AtomicLongArray bitsOf(char prefix) {
+		if (prefix == DOMESTIC) {
+			return domestic;
+		} else if (prefix == INTERNATIONAL) {
+			return international;
+		}
+		throw new IllegalArgumentException("Unknown reservation code prefix " + prefix);
+	}
+
+	/**
+	 * Gets the bits of a word that stand for codes.
+	 */
+	private static long validBits(int word) {
+		int codes = Math.min(64, CODES - word * 64);
+		return codes == 64 ? -1L : (1L << codes) - 1;
+	}
+
+	/**
+	 * Gets the bit of a code.
+	 *
+	 * @return Bit index or -1 if the code is not in the LDDDD format.
+	 */
+	private static int indexOf(String code) {
+		if (code == null || code.length() != 5) {
+			return -1;
+		}
+		char prefix = code.charAt(0);
+		if (prefix != DOMESTIC && prefix != INTERNATIONAL) {
+			return -1;
+		}
+		int number = 0;
+		for (int i = 1; i < 5; i++) {
+			char digit = code.charAt(i);
+			if (digit < '0' || digit > '9') {
+				return -1;
+			}
+			number = number * 10 + digit - '0';
+		}
+		return number >= FIRST_NUMBER ? number - FIRST_NUMBER : -1;
+	}
+}
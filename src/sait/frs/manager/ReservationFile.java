@@ -0,0 +1,508 @@
+package sait.frs.manager;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.zip.CRC32;
+import sait.frs.exception.*;
+import sait.frs.problemdomain.*;
+
+/**
+ * Random access file holding fixed-width reservation records.
+ *
+ * The file starts with a header of HEADER_SIZE bytes (magic number, format
+ * version, record size and slot count) followed by one RECORD_SIZE record per
+ * slot. Anything past the last counted slot is ignored. The
+ * slot of a reservation never changes, so a new reservation is appended and a
+ * modified reservation is written back over its own record.
+ *
+ * Every record ends with a CRC32 of its fields. Opening the file checks every
+ * record in one sequential pass: corrupt records at the end, such as a torn
+ * append, are cut off and corrupt records elsewhere are skipped when reading.
+ * Whole-file rewrites go to a temporary file that replaces the original in one
+ * rename, so a crash leaves either the old or the new file.
+ */
+public class ReservationFile implements ReservationStore {
+
+	public static final int MAGIC = 0x46525352;
+	public static final short VERSION = 1;
+	public static final int HEADER_SIZE = 32;
+
+	/**
+	 * Position of the slot count in the header.
+	 */
+	public static final int SLOT_COUNT_OFFSET = 8;
+
+	public static final int CODE_LENGTH = 7;
+	public static final int FLIGHT_CODE_LENGTH = 7;
+	public static final int AIRLINE_LENGTH = 30;
+	public static final int NAME_LENGTH = Reservation.MAX_NAME_BYTES;
+	public static final int CITIZENSHIP_LENGTH = Reservation.MAX_CITIZENSHIP_BYTES;
+
+	/**
+	 * Each string field is stored as a 2 byte length followed by its padded bytes.
+	 */
+	public static final int FIELDS_SIZE = (2 + CODE_LENGTH) + (2 + FLIGHT_CODE_LENGTH) + (2 + AIRLINE_LENGTH)
+			+ (2 + NAME_LENGTH) + (2 + CITIZENSHIP_LENGTH) + 8 + 1;
+
+	/**
+	 * Fields followed by their CRC32.
+	 */
+	public static final int RECORD_SIZE = FIELDS_SIZE + 4;
+
+	/**
+	 * Number of records read from the file at a time.
+	 */
+	private static final int READ_BATCH = 512;
+
+	/**
+	 * Size of a record written by the original persist() which stored the
+	 * space-padded fields with writeUTF() and no cost.
+	 */
+	private static final int LEGACY_RECORD_SIZE = (2 + CODE_LENGTH) + (2 + FLIGHT_CODE_LENGTH) + (2 + AIRLINE_LENGTH)
+			+ (2 + NAME_LENGTH) + (2 + CITIZENSHIP_LENGTH) + 1;
+
+	private String path;
+	private RandomAccessFile file;
+	private int slots;
+	private int cutRecords;
+	private int skippedRecords;
+
+	/**
+	 * Opens the reservation file, creating it if it does not exist. A file in
+	 * the original headerless format is converted to the current format.
+	 *
+	 * @param path - Location of the reservation file
+	 * @throws IOException Thrown when the file could not be accessed or is not a
+	 *                     reservation file.
+	 */
+	public ReservationFile(String path) throws IOException {
+		this.path = path;
+		this.file = new RandomAccessFile(path, "rw");
+
+		if (file.length() == 0) {
+			file.write(header(0).array());
+		} else if (file.readInt() != MAGIC) {
+			convert(readLegacy());
+		} else {
+			short version = file.readShort();
+			short recordSize = file.readShort();
+			if (version != VERSION || recordSize != RECORD_SIZE) {
+				throw new IOException(String.format("%s has unsupported version %d (record size %d)", path, version,
+						recordSize));
+			}
+			slots = (int) Math.min(file.readInt(), (file.length() - HEADER_SIZE) / RECORD_SIZE);
+			recover();
+		}
+	}
+
+	/**
+	 * Gets the number of record slots in the file.
+	 *
+	 * @return Number of slots
+	 */
+	public synchronized int getSlotCount() {
+		return slots;
+	}
+
+	/**
+	 * Reads every record in the file. Records that fail validation are skipped.
+	 *
+	 * @return ArrayList of Reservation in slot order.
+	 * @throws IOException Thrown when the file could not be accessed.
+	 */
+	@Override
+	public synchronized ArrayList<Reservation> readAll() throws IOException {
+		ArrayList<Reservation> reservations = new ArrayList<Reservation>(slots);
+		int[] skipped = { 0 };
+		scan((slot, record) -> {
+			if (!isIntact(record)) {
+				++skipped[0];
+			} else {
+				addDecoded(reservations, slot, record);
+			}
+		});
+		skippedRecords = skipped[0];
+		return reservations;
+	}
+
+	@Override
+	public synchronized int getCorruptCount() {
+		return cutRecords + skippedRecords;
+	}
+
+	/**
+	 * Appends a reservation to the end of the file and assigns its slot.
+	 *
+	 * @param reservation - Reservation without a slot
+	 * @throws IOException Thrown when the file could not be accessed.
+	 */
+	@Override
+	public synchronized void append(Reservation reservation) throws IOException {
+		reservation.setSlot(slots);
+		write(reservation);
+	}
+
+	/**
+	 * Writes a reservation over its own record.
+	 *
+	 * @param reservation - Reservation with a slot
+	 * @throws IOException Thrown when the file could not be accessed.
+	 */
+	@Override
+	public synchronized void write(Reservation reservation) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(RECORD_SIZE);
+		encode(reservation, buffer);
+		writeRecord(reservation.getSlot(), buffer.array());
+	}
+
+	/**
+	 * Saves a batch of reservations and syncs the file once.
+	 *
+	 * @param reservations - Reservations to save
+	 * @throws IOException Thrown when the file could not be accessed.
+	 */
+	@Override
+	public synchronized void writeBatch(List<Reservation> reservations) throws IOException {
+		for (Reservation reservation : reservations) {
+			synchronized (reservation) {
+				if (reservation.isRemoved()) {
+					continue;
+				} else if (reservation.getSlot() < 0) {
+					append(reservation);
+				} else {
+					write(reservation);
+				}
+			}
+		}
+		sync();
+	}
+
+	/**
+	 * Writes an encoded record into a slot. Writing past the last slot extends
+	 * the slot count.
+	 *
+	 * @param slot   - Slot number
+	 * @param record - RECORD_SIZE bytes produced by encode
+	 * @throws IOException Thrown when the file could not be accessed.
+	 */
+	synchronized void writeRecord(int slot, byte[] record) throws IOException {
+		file.seek(offsetOf(slot));
+		file.write(record);
+		if (slot >= slots) {
+			slots = slot + 1;
+			file.seek(SLOT_COUNT_OFFSET);
+			file.writeInt(slots);
+		}
+	}
+
+	/**
+	 * Forces every write made so far to the storage device.
+	 *
+	 * @throws IOException Thrown when the file could not be synced.
+	 */
+	synchronized void sync() throws IOException {
+		file.getFD().sync();
+	}
+
+	/**
+	 * Replaces the contents of the file with the reservations, assigning them
+	 * consecutive slots. The file is closed while the snapshot replaces it and
+	 * reopened either way, so if the rewrite fails the old file stays in use
+	 * and the reservations keep their slots.
+	 *
+	 * @param reservations - Reservations to write
+	 * @throws IOException Thrown when the file could not be accessed.
+	 */
+	@Override
+	public synchronized void writeAll(List<Reservation> reservations) throws IOException {
+		file.close();
+		try {
+			writeSnapshot(path, reservations);
+			slots = reservations.size();
+		} finally {
+			file = new RandomAccessFile(path, "rw");
+		}
+	}
+
+	/**
+	 * Writes a complete reservation file to a temporary file and renames it over
+	 * the file at path. The reservations are assigned consecutive slots once the
+	 * new file is in place.
+	 *
+	 * @param path         - Location of the reservation file
+	 * @param reservations - Reservations to write
+	 * @throws IOException Thrown when the file could not be written.
+	 */
+	public static void writeSnapshot(String path, List<Reservation> reservations) throws IOException {
+		Path target = Paths.get(path);
+		Path temp = Paths.get(path + ".tmp");
+
+		try (FileChannel out = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING)) {
+			ByteBuffer buffer = header(reservations.size());
+			out.write(buffer);
+			buffer = ByteBuffer.allocateDirect(READ_BATCH * RECORD_SIZE);
+			for (int slot = 0; slot < reservations.size(); slot++) {
+				encode(reservations.get(slot), buffer);
+				if (!buffer.hasRemaining()) {
+					buffer.flip();
+					while (buffer.hasRemaining()) {
+						out.write(buffer);
+					}
+					buffer.clear();
+				}
+			}
+			buffer.flip();
+			while (buffer.hasRemaining()) {
+				out.write(buffer);
+			}
+			out.force(true);
+		}
+		Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		for (int slot = 0; slot < reservations.size(); slot++) {
+			reservations.get(slot).setSlot(slot);
+		}
+	}
+
+	/**
+	 * Closes the file.
+	 *
+	 * @throws IOException Thrown when the file could not be closed.
+	 */
+	@Override
+	public synchronized void close() throws IOException {
+		file.close();
+	}
+
+	/**
+	 * Gets the position of a slot in the file.
+	 *
+	 * @param slot - Slot number
+	 * @return Byte offset of the record
+	 */
+	public static long offsetOf(int slot) {
+		if (slot < 0) {
+			throw new IllegalArgumentException("Reservation has no slot");
+		}
+		return HEADER_SIZE + (long) slot * RECORD_SIZE;
+	}
+
+	/**
+	 * Encodes a reservation as one record at the buffer's position.
+	 *
+	 * @param reservation - Reservation to encode
+	 * @param buffer      - Buffer with at least RECORD_SIZE bytes remaining
+	 */
+	public static void encode(Reservation reservation, ByteBuffer buffer) {
+		int start = buffer.position();
+		putString(buffer, reservation.getCode(), CODE_LENGTH);
+		putString(buffer, reservation.getFlightCode(), FLIGHT_CODE_LENGTH);
+		putString(buffer, reservation.getAirline(), AIRLINE_LENGTH);
+		putString(buffer, reservation.getName(), NAME_LENGTH);
+		putString(buffer, reservation.getCitizenship(), CITIZENSHIP_LENGTH);
+		buffer.putDouble(reservation.getCost());
+		buffer.put((byte) (reservation.isActive() ? 1 : 0));
+		buffer.putInt(checksum(buffer, start));
+	}
+
+	/**
+	 * Checks the CRC32 of the record at the buffer's position.
+	 *
+	 * @param buffer - Buffer with at least RECORD_SIZE bytes remaining
+	 * @return True if the record matches its checksum.
+	 */
+	public static boolean isIntact(ByteBuffer buffer) {
+		return buffer.getInt(buffer.position() + FIELDS_SIZE) == checksum(buffer, buffer.position());
+	}
+
+	/**
+	 * Decodes one record at the buffer's position. The checksum is not checked
+	 * and the buffer is left positioned at it.
+	 *
+	 * @param buffer - Buffer with at least RECORD_SIZE bytes remaining
+	 * @return Decoded Reservation without a slot.
+	 * @throws NullFlightException         - Thrown if flight is null
+	 * @throws InvalidNameException        - Thrown if name is null or empty
+	 * @throws InvalidCitizenshipException - Thrown if citizenship is null or empty
+	 */
+	public static Reservation decode(ByteBuffer buffer)
+			throws NullFlightException, InvalidNameException, InvalidCitizenshipException {
+		String code = getString(buffer, CODE_LENGTH);
+		String flightCode = getString(buffer, FLIGHT_CODE_LENGTH);
+		String airline = getString(buffer, AIRLINE_LENGTH);
+		String name = getString(buffer, NAME_LENGTH);
+		String citizenship = getString(buffer, CITIZENSHIP_LENGTH);
+		double cost = buffer.getDouble();
+		boolean active = buffer.get() != 0;
+		return new Reservation(code, flightCode, airline, name, citizenship, cost, active);
+	}
+
+	/**
+	 * Writes a string as a 2 byte length and a zero padded field. Strings longer
+	 * than the field are cut at a character boundary.
+	 */
+	private static void putString(ByteBuffer buffer, String value, int length) {
+		byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+		int used = Math.min(bytes.length, length);
+		while (used < bytes.length && used > 0 && (bytes[used] & 0xC0) == 0x80) {
+			--used;
+		}
+		buffer.putShort((short) used);
+		buffer.put(bytes, 0, used);
+		for (int i = used; i < length; i++) {
+			buffer.put((byte) 0);
+		}
+	}
+
+	/**
+	 * Reads a string written by putString.
+	 */
+	private static String getString(ByteBuffer buffer, int length) {
+		int used = Math.min(buffer.getShort() & 0xFFFF, length);
+		int end = buffer.position() + length;
+		byte[] bytes = new byte[used];
+		buffer.get(bytes);
+		buffer.position(end);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Gets the CRC32 of the FIELDS_SIZE bytes starting at a position.
+	 */
+	private static int checksum(ByteBuffer buffer, int start) {
+		ByteBuffer fields = buffer.duplicate();
+		fields.limit(start + FIELDS_SIZE);
+		fields.position(start);
+		CRC32 crc = new CRC32();
+		crc.update(fields);
+		return (int) crc.getValue();
+	}
+
+	/**
+	 * Builds the file header.
+	 */
+	private static ByteBuffer header(int slots) {
+		ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+		header.putInt(MAGIC);
+		header.putShort(VERSION);
+		header.putShort((short) RECORD_SIZE);
+		header.putInt(slots);
+		header.clear();
+		return header;
+	}
+
+	/**
+	 * Receives the records visited by scan().
+	 */
+	private interface RecordHandler {
+		void record(int slot, ByteBuffer record);
+	}
+
+	/**
+	 * Reads the counted slots front to back in batches of READ_BATCH records,
+	 * reusing one buffer. Each record is passed on positioned at its start.
+	 */
+	private void scan(RecordHandler handler) throws IOException {
+		FileChannel channel = file.getChannel();
+		ByteBuffer buffer = ByteBuffer.allocateDirect(READ_BATCH * RECORD_SIZE);
+		long position = HEADER_SIZE;
+		int slot = 0;
+
+		while (slot < slots) {
+			buffer.clear();
+			buffer.limit(Math.min(READ_BATCH, slots - slot) * RECORD_SIZE);
+			while (buffer.hasRemaining()) {
+				if (channel.read(buffer, position + buffer.position()) < 0) {
+					throw new EOFException(path + " ends in the middle of slot " + slot);
+				}
+			}
+			position += buffer.limit();
+			for (int offset = 0; offset < buffer.limit(); offset += RECORD_SIZE) {
+				buffer.position(offset);
+				handler.record(slot++, buffer);
+			}
+		}
+	}
+
+	/**
+	 * Checks every record and cuts off the corrupt ones at the end of the file.
+	 * Corrupt records elsewhere are counted when readAll() skips them.
+	 */
+	private void recover() throws IOException {
+		int[] intact = { 0 };
+		scan((slot, record) -> {
+			if (isIntact(record)) {
+				intact[0] = slot + 1;
+			}
+		});
+		if (intact[0] < slots) {
+			cutRecords = slots - intact[0];
+			slots = intact[0];
+			file.seek(SLOT_COUNT_OFFSET);
+			file.writeInt(slots);
+			file.setLength(offsetOf(slots));
+			file.getFD().sync();
+		}
+	}
+
+	/**
+	 * Writes the reservations of a headerless file in the current format and
+	 * releases them, since they are read again from the converted file.
+	 */
+	private void convert(ArrayList<Reservation> reservations) throws IOException {
+		writeAll(reservations);
+		for (Reservation reservation : reservations) {
+			reservation.release();
+		}
+	}
+
+	/**
+	 * Decodes a record and adds it to the list. Records that fail validation are
+	 * skipped.
+	 */
+	private static void addDecoded(ArrayList<Reservation> reservations, int slot, ByteBuffer record) {
+		try {
+			Reservation reservation = decode(record);
+			reservation.setSlot(slot);
+			reservations.add(reservation);
+		} catch (InvalidNameException e) {
+			e.printStackTrace();
+		} catch (InvalidCitizenshipException e) {
+			e.printStackTrace();
+		} catch (NullFlightException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Reads the records of a headerless file written by the original persist().
+	 * The cost was never stored, so it is read back as zero.
+	 */
+	private ArrayList<Reservation> readLegacy() throws IOException {
+		ArrayList<Reservation> reservations = new ArrayList<Reservation>();
+		file.seek(0);
+		while (file.getFilePointer() + LEGACY_RECORD_SIZE <= file.length()) {
+			String code = file.readUTF().trim();
+			String flightCode = file.readUTF().trim();
+			String airline = file.readUTF().trim();
+			String name = file.readUTF().trim();
+			String citizenship = file.readUTF().trim();
+			boolean active = file.readBoolean();
+
+			try {
+				reservations.add(new Reservation(code, flightCode, airline, name, citizenship, 0, active));
+			} catch (InvalidNameException e) {
+				e.printStackTrace();
+			} catch (InvalidCitizenshipException e) {
+				e.printStackTrace();
+			} catch (NullFlightException e) {
+				e.printStackTrace();
+			}
+		}
+		return reservations;
+	}
+}
@@ -0,0 +1,109 @@
+package sait.frs.manager;
+
+import java.nio.charset.*;
+import sait.frs.problemdomain.*;
+
+/**
+ * Criteria of a reservation search. A reservation matches when it meets every
+ * criterion given; empty text and null criteria match everything.
+ */
+public class ReservationQuery {
+
+	private String code;
+	private String airline;
+	private String name;
+	private String namePrefix;
+	private Boolean active;
+
+	/**
+	 * UTF-8 bytes of the texts compared with the fields of a reservation.
+	 */
+	private byte[] codeBytes;
+	private byte[] nameBytes;
+	private byte[] namePrefixBytes;
+
+	/**
+	 * Creates a query.
+	 *
+	 * @param code       - Text the reservation code contains
+	 * @param airline    - Text the airline contains
+	 * @param name       - Text the traveler name contains
+	 * @param namePrefix - Text the traveler name starts with, or null
+	 * @param active     - True or false to match only active or inactive
+	 *                   reservations, or null for both
+	 */
+	public ReservationQuery(String code, String airline, String name, String namePrefix, Boolean active) {
+		this.code = code == null ? "" : code;
+		this.airline = airline == null ? "" : airline;
+		this.name = name == null ? "" : name;
+		this.namePrefix = namePrefix == null ? "" : namePrefix;
+		this.active = active;
+		codeBytes = this.code.getBytes(StandardCharsets.UTF_8);
+		nameBytes = this.name.getBytes(StandardCharsets.UTF_8);
+		namePrefixBytes = this.namePrefix.getBytes(StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Gets the text the reservation code contains.
+	 *
+	 * @return Text, empty for any code
+	 */
+	public String getCode() {
+		return code;
+	}
+
+	/**
+	 * Gets the text the airline contains.
+	 *
+	 * @return Text, empty for any airline
+	 */
+	public String getAirline() {
+		return airline;
+	}
+
+	/**
+	 * Gets the text the traveler name contains.
+	 *
+	 * @return Text, empty for any name
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Gets the text the traveler name starts with.
+	 *
+	 * @return Text, empty for any name
+	 */
+	public String getNamePrefix() {
+		return namePrefix;
+	}
+
+	/**
+	 * Gets whether only active or inactive reservations match.
+	 *
+	 * @return True or false, or null for both
+	 */
+	public Boolean getActive() {
+		return active;
+	}
+
+	/**
+	 * Checks whether a reservation meets every criterion. The code and name are
+	 * compared where the reservation keeps them, without decoding them.
+	 *
+	 * @param reservation - Reservation to check
+	 * @return True if the reservation matches.
+	 */
+	public boolean matches(Reservation reservation) {
+		return (active == null || reservation.isActive() == active) && reservation.codeContains(codeBytes)
+				&& reservation.getAirline().contains(airline) && reservation.nameContains(nameBytes)
+				&& reservation.nameStartsWith(namePrefixBytes);
+	}
+
+	@Override
+	public String toString() {
+		return String.format("code contains \"%s\", airline contains \"%s\", name contains \"%s\", "
+				+ "name starts with \"%s\", active %s", code, airline, name, namePrefix, active == null ? "any" : active);
+	}
+}
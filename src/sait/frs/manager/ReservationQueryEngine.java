@@ -0,0 +1,357 @@
+package sait.frs.manager;
+
+import java.util.*;
+import java.util.concurrent.locks.*;
+import java.util.function.*;
+import sait.frs.exception.*;
+import sait.frs.problemdomain.*;
+
+/**
+ * Answers reservation searches from per-field indexes.
+ *
+ * Each field that can narrow a search has an index: reservation codes by
+ * exact value, airlines by name, traveler names sorted for prefixes, the
+ * active flag, and trigrams of code, airline and name for text inside them.
+ * For a query, every index that applies estimates how many reservations it
+ * would return. The plan reads the index with the lowest cost, counting the
+ * sort of results that do not come in the order added, and checks every
+ * criterion on what it returns, so the work follows the most selective
+ * criterion instead of the number of reservations. explain() shows the plan.
+ */
+public class ReservationQueryEngine {
+
+	private static final int CODE_LENGTH = 5;
+
+	private HashMap<String, ArrayList<Reservation>> byCode = new HashMap<String, ArrayList<Reservation>>();
+	private HashMap<String, ArrayList<Reservation>> byAirline = new HashMap<String, ArrayList<Reservation>>();
+	private TreeMap<String, ArrayList<Reservation>> byName = new TreeMap<String, ArrayList<Reservation>>();
+	private Set<Reservation> active = Collections.newSetFromMap(new IdentityHashMap<Reservation, Boolean>());
+	private Set<Reservation> inactive = Collections.newSetFromMap(new IdentityHashMap<Reservation, Boolean>());
+	private TrigramIndex trigrams;
+
+	/**
+	 * Number of codes longer than CODE_LENGTH. A code text of CODE_LENGTH can
+	 * only be looked up in byCode while there are none, since a longer code can
+	 * contain it.
+	 */
+	private int longCodes;
+
+	/**
+	 * Position of each reservation in the order they were added, iterated in
+	 * that order. Results are returned in this order whichever index they came
+	 * from.
+	 */
+	private LinkedHashMap<Reservation, Long> order = new LinkedHashMap<Reservation, Long>();
+	private long added;
+
+	private ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+	/**
+	 * One way to read the reservations for a query. The reservations are only
+	 * collected if the plan chooses it. Its cost is the number of reservations
+	 * read, plus sorting them when the index does not keep them in the order
+	 * they were added.
+	 */
+	private static class Access {
+
+		private String description;
+		private long estimate;
+		private boolean ordered;
+		private Supplier<Collection<Reservation>> rows;
+
+		Access(String description, long estimate, boolean ordered, Supplier<Collection<Reservation>> rows) {
+			this.description = description;
+			this.estimate = estimate;
+			this.ordered = ordered;
+			this.rows = rows;
+		}
+
+		long cost() {
+			return ordered ? estimate : estimate + estimate * (64 - Long.numberOfLeadingZeros(estimate));
+		}
+	}
+
+	/**
+	 * Builds the indexes.
+	 *
+	 * @param reservations - Reservations to index
+	 */
+	public ReservationQueryEngine(Collection<Reservation> reservations) {
+		trigrams = new TrigramIndex(reservations);
+		for (Reservation reservation : reservations) {
+			addToIndexes(reservation);
+		}
+	}
+
+	/**
+	 * Adds a reservation.
+	 *
+	 * @param reservation - Reservation to add
+	 */
+	public void add(Reservation reservation) {
+		lock.writeLock().lock();
+		try {
+			if (!order.containsKey(reservation)) {
+				trigrams.add(reservation);
+				addToIndexes(reservation);
+			}
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Removes a reservation.
+	 *
+	 * @param reservation - Reservation to remove
+	 */
+	public void remove(Reservation reservation) {
+		lock.writeLock().lock();
+		try {
+			if (order.remove(reservation) != null) {
+				trigrams.remove(reservation);
+				removeFrom(byCode, reservation.getCode(), reservation);
+				if (isLongCode(reservation.getCode())) {
+					--longCodes;
+				}
+				removeFrom(byAirline, reservation.getAirline(), reservation);
+				removeFrom(byName, reservation.getName(), reservation);
+				active.remove(reservation);
+				inactive.remove(reservation);
+			}
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Renames the traveler of a reservation and moves it in the name indexes.
+	 *
+	 * @param reservation - Reservation to rename
+	 * @param name        - New name of traveler
+	 * @param change      - Sets the name of the reservation
+	 */
+	public void rename(Reservation reservation, String name, Runnable change) {
+		lock.writeLock().lock();
+		try {
+			String oldName = reservation.getName();
+			trigrams.rename(reservation, name, change);
+			if (order.containsKey(reservation)) {
+				removeFrom(byName, oldName, reservation);
+				byName.computeIfAbsent(name, key -> new ArrayList<Reservation>(1)).add(reservation);
+			}
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Makes a reservation active or inactive and moves it in the active index.
+	 *
+	 * @param reservation - Reservation to change
+	 * @param isActive    - True if the reservation is active
+	 * @param change      - Sets the status of the reservation
+	 */
+	public void setActive(Reservation reservation, boolean isActive, Runnable change) {
+		lock.writeLock().lock();
+		try {
+			change.run();
+			if (order.containsKey(reservation)) {
+				(isActive ? inactive : active).remove(reservation);
+				(isActive ? active : inactive).add(reservation);
+			}
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Finds the reservations with an exact code.
+	 *
+	 * @param code - Reservation code
+	 * @return ArrayList of the reservations in the order they were added.
+	 */
+	public ArrayList<Reservation> findByCode(String code) {
+		lock.readLock().lock();
+		try {
+			ArrayList<Reservation> found = byCode.get(code);
+			return found == null ? new ArrayList<Reservation>() : new ArrayList<Reservation>(found);
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Finds the reservations matching a query.
+	 *
+	 * @param query - Search criteria
+	 * @return ArrayList of the matching reservations in the order they were
+	 *         added.
+	 */
+	public ArrayList<Reservation> find(ReservationQuery query) {
+		lock.readLock().lock();
+		try {
+			Access access = plan(query).get(0);
+			ArrayList<Reservation> found = new ArrayList<Reservation>();
+			for (Reservation reservation : access.rows.get()) {
+				if (query.matches(reservation)) {
+					found.add(reservation);
+				}
+			}
+			if (!access.ordered) {
+				found.sort(Comparator.comparingLong(order::get));
+			}
+			return found;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Describes how find() would run a query: the index it reads, the
+	 * estimated number of reservations read, the criteria checked afterwards and
+	 * the other indexes considered.
+	 *
+	 * @param query - Search criteria
+	 * @return Plan as text, one step per line.
+	 */
+	public String explain(ReservationQuery query) {
+		lock.readLock().lock();
+		try {
+			ArrayList<Access> plan = plan(query);
+			StringBuilder text = new StringBuilder();
+			Access chosen = plan.get(0);
+			text.append(String.format("Read: %s, estimated %d of %d reservations, cost %d%n", chosen.description,
+					chosen.estimate, order.size(), chosen.cost()));
+			text.append(String.format("Filter: %s%n", query));
+			if (!chosen.ordered) {
+				text.append(String.format("Sort: by order added%n"));
+			}
+			for (int i = 1; i < plan.size(); i++) {
+				text.append(String.format("Considered: %s, estimated %d, cost %d%n", plan.get(i).description,
+						plan.get(i).estimate, plan.get(i).cost()));
+			}
+			return text.toString();
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Lists the ways to read the reservations for a query, cheapest first.
+	 */
+	private ArrayList<Access> plan(ReservationQuery query) {
+		ArrayList<Access> plan = new ArrayList<Access>();
+		plan.add(new Access("full scan", order.size(), true, () -> order.keySet()));
+
+		String code = query.getCode();
+		if (code.length() == CODE_LENGTH && longCodes == 0) {
+			ArrayList<Reservation> rows = byCode.getOrDefault(code, new ArrayList<Reservation>());
+			plan.add(new Access(String.format("code index = \"%s\"", code), rows.size(), true, () -> rows));
+		} else if (code.length() >= TrigramIndex.MIN_LENGTH) {
+			plan.add(trigramAccess("code", TrigramIndex.CODE, code));
+		}
+
+		String airline = query.getAirline();
+		if (!airline.isEmpty()) {
+			ArrayList<ArrayList<Reservation>> buckets = new ArrayList<ArrayList<Reservation>>();
+			ArrayList<String> airlines = new ArrayList<String>();
+			long count = 0;
+			for (Map.Entry<String, ArrayList<Reservation>> entry : byAirline.entrySet()) {
+				if (entry.getKey().contains(airline)) {
+					airlines.add(entry.getKey());
+					buckets.add(entry.getValue());
+					count += entry.getValue().size();
+				}
+			}
+			plan.add(new Access(String.format("airline index in %s", airlines), count, buckets.size() < 2,
+					() -> concat(buckets)));
+		}
+
+		String name = query.getName();
+		if (name.length() >= TrigramIndex.MIN_LENGTH) {
+			plan.add(trigramAccess("name", TrigramIndex.NAME, name));
+		}
+
+		if (query.getActive() != null) {
+			Set<Reservation> rows = query.getActive() ? active : inactive;
+			plan.add(new Access(String.format("active index = %s", query.getActive()), rows.size(), false,
+					() -> rows));
+		}
+
+		String prefix = query.getNamePrefix();
+		if (!prefix.isEmpty()) {
+			// Counting a prefix walks its names, so stop once it cannot win.
+			long cheapest = Long.MAX_VALUE;
+			for (Access access : plan) {
+				cheapest = Math.min(cheapest, access.cost());
+			}
+			Collection<ArrayList<Reservation>> names = byName.subMap(prefix, prefix + Character.MAX_VALUE).values();
+			long count = 0;
+			Iterator<ArrayList<Reservation>> i = names.iterator();
+			while (i.hasNext() && count <= cheapest) {
+				count += i.next().size();
+			}
+			String counted = i.hasNext() ? " (counting stopped)" : "";
+			plan.add(new Access(String.format("name index starting with \"%s\"%s", prefix, counted), count,
+					false, () -> concat(names)));
+		}
+
+		plan.sort(Comparator.comparingLong(Access::cost));
+		return plan;
+	}
+
+	/**
+	 * Gets the trigram index of a field as a way to read reservations.
+	 */
+	private Access trigramAccess(String fieldName, int field, String text) {
+		return new Access(String.format("%s trigrams of \"%s\"", fieldName, text), trigrams.estimate(field, text),
+				true, () -> trigrams.candidates(field, text));
+	}
+
+	/**
+	 * Joins lists of reservations.
+	 */
+	private static ArrayList<Reservation> concat(Collection<ArrayList<Reservation>> lists) {
+		ArrayList<Reservation> rows = new ArrayList<Reservation>();
+		for (ArrayList<Reservation> list : lists) {
+			rows.addAll(list);
+		}
+		return rows;
+	}
+
+	/**
+	 * Adds a reservation to every index except the trigrams.
+	 */
+	private void addToIndexes(Reservation reservation) {
+		order.put(reservation, added++);
+		byCode.computeIfAbsent(reservation.getCode(), key -> new ArrayList<Reservation>(1)).add(reservation);
+		if (isLongCode(reservation.getCode())) {
+			++longCodes;
+		}
+		byAirline.computeIfAbsent(reservation.getAirline(), key -> new ArrayList<Reservation>()).add(reservation);
+		byName.computeIfAbsent(reservation.getName(), key -> new ArrayList<Reservation>(1)).add(reservation);
+		(reservation.isActive() ? active : inactive).add(reservation);
+	}
+
+	/**
+	 * Checks whether a code is longer than CODE_LENGTH, like the codes of the
+	 * original generator.
+	 */
+	private static boolean isLongCode(String code) {
+		return code != null && code.length() > CODE_LENGTH;
+	}
+
+	/**
+	 * Removes a reservation from the list of one key.
+	 */
+	private static void removeFrom(Map<String, ArrayList<Reservation>> index, String key, Reservation reservation) {
+		ArrayList<Reservation> sameKey = index.get(key);
+		if (sameKey != null) {
+			sameKey.remove(reservation);
+			if (sameKey.isEmpty()) {
+				index.remove(key);
+			}
+		}
+	}
+}
@@ -0,0 +1,74 @@
+package sait.frs.manager;
+
+import java.io.*;
+import java.util.*;
+import sait.frs.problemdomain.*;
+
+/**
+ * Persistent storage for reservation records. Every saved reservation owns a
+ * slot that identifies its record in the store.
+ */
+public interface ReservationStore {
+
+	/**
+	 * Reads every reservation in the store. Reservations that are not kept
+	 * should be released.
+	 * 
+	 * @return ArrayList of Reservation in slot order.
+	 * @throws IOException Thrown when the store could not be accessed.
+	 */
+	ArrayList<Reservation> readAll() throws IOException;
+
+	/**
+	 * Gets the number of corrupt records found in the store: those cut off the
+	 * end when it was opened and those skipped by the last readAll(). Callers
+	 * show it to the user rather than the store printing it.
+	 * 
+	 * @return Number of corrupt records, 0 if the store is intact.
+	 */
+	int getCorruptCount();
+
+	/**
+	 * Saves a new reservation and assigns its slot.
+	 * 
+	 * @param reservation - Reservation without a slot
+	 * @throws IOException Thrown when the store could not be accessed.
+	 */
+	void append(Reservation reservation) throws IOException;
+
+	/**
+	 * Saves a changed reservation over its own record.
+	 * 
+	 * @param reservation - Reservation with a slot
+	 * @throws IOException Thrown when the store could not be accessed.
+	 */
+	void write(Reservation reservation) throws IOException;
+
+	/**
+	 * Saves a batch of reservations, appending those without a slot and writing
+	 * the others over their own records, and returns once the whole batch is on
+	 * disk. The store syncs once for the batch. Reservations that have been
+	 * removed are skipped; each one is held while it is saved so that it cannot
+	 * be detached half way.
+	 * 
+	 * @param reservations - Reservations to save
+	 * @throws IOException Thrown when the store could not be accessed.
+	 */
+	void writeBatch(List<Reservation> reservations) throws IOException;
+
+	/**
+	 * Replaces the contents of the store with the reservations, assigning them
+	 * consecutive slots.
+	 * 
+	 * @param reservations - Reservations to save
+	 * @throws IOException Thrown when the store could not be accessed.
+	 */
+	void writeAll(List<Reservation> reservations) throws IOException;
+
+	/**
+	 * Saves anything still pending and releases the store.
+	 * 
+	 * @throws IOException Thrown when the store could not be closed.
+	 */
+	void close() throws IOException;
+}
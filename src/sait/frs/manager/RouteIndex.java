@@ -0,0 +1,133 @@
+package sait.frs.manager;
+
+import java.util.*;
+import sait.frs.problemdomain.*;
+
+/**
+ * Flights grouped by route and weekday.
+ *
+ * Each origin airport maps to its destinations, and each route holds one
+ * bucket of flights per weekday in file order. A search looks up its route
+ * and copies the matching buckets, so it costs time in the number of flights
+ * found rather than the size of the schedule.
+ *
+ * Each route also keeps its flights of every weekday sorted by departure
+ * time, flights leaving at the same time in file order. A search for a range
+ * of times finds the first flight by binary search and copies flights until
+ * the range ends, so it costs O(log n + k) and needs no sorting afterwards.
+ */
+public class RouteIndex {
+
+	private HashMap<String, HashMap<String, Route>> routes = new HashMap<String, HashMap<String, Route>>();
+
+	/**
+	 * Flights of one origin and destination, by weekday.
+	 */
+	private static class Route {
+
+		private LinkedHashMap<String, ArrayList<Flight>> weekdays = new LinkedHashMap<String, ArrayList<Flight>>();
+		private HashMap<String, ArrayList<Flight>> byTime = new HashMap<String, ArrayList<Flight>>();
+		private int size;
+	}
+
+	/**
+	 * Builds the index. The flights of each route and weekday are collected in
+	 * file order and sorted by time once, and List.sort is stable, so flights
+	 * leaving at the same time stay in file order.
+	 *
+	 * @param flights - Flights to index
+	 */
+	public RouteIndex(Collection<Flight> flights) {
+		for (Flight flight : flights) {
+			Route route = routes.computeIfAbsent(flight.getFrom(), from -> new HashMap<String, Route>())
+					.computeIfAbsent(flight.getTo(), to -> new Route());
+			route.weekdays.computeIfAbsent(flight.getWeekday(), weekday -> new ArrayList<Flight>()).add(flight);
+			route.byTime.computeIfAbsent(flight.getWeekday(), weekday -> new ArrayList<Flight>()).add(flight);
+			++route.size;
+		}
+		for (HashMap<String, Route> destinations : routes.values()) {
+			for (Route route : destinations.values()) {
+				for (ArrayList<Flight> sorted : route.byTime.values()) {
+					sorted.sort(Comparator.comparingInt(Flight::getDepartureMinutes));
+				}
+			}
+		}
+	}
+
+	/**
+	 * Finds flights going between airports on a weekday.
+	 *
+	 * @param from    - From airport
+	 * @param to      - To airport
+	 * @param weekday - Day of week or Manager.WEEKDAY_ANY for every day, in which
+	 *                case the weekdays follow each other
+	 * @return ArrayList of the matching flights.
+	 */
+	public ArrayList<Flight> find(String from, String to, String weekday) {
+		HashMap<String, Route> destinations = routes.get(from);
+		Route route = destinations == null ? null : destinations.get(to);
+		if (route == null) {
+			return new ArrayList<Flight>();
+		}
+		if (!weekday.equals(Manager.WEEKDAY_ANY)) {
+			ArrayList<Flight> flights = route.weekdays.get(weekday);
+			return flights == null ? new ArrayList<Flight>() : new ArrayList<Flight>(flights);
+		}
+
+		ArrayList<Flight> flights = new ArrayList<Flight>(route.size);
+		for (ArrayList<Flight> bucket : route.weekdays.values()) {
+			flights.addAll(bucket);
+		}
+		return flights;
+	}
+
+	/**
+	 * Finds flights going between airports on a weekday that leave within a
+	 * range of times.
+	 *
+	 * @param from     - From airport
+	 * @param to       - To airport
+	 * @param weekday  - Day of week or Manager.WEEKDAY_ANY for every day, in
+	 *                 which case the weekdays follow each other from Sunday
+	 * @param earliest - Earliest time to leave, in minutes since midnight
+	 * @param latest   - Latest time to leave, in minutes since midnight
+	 * @return ArrayList of the matching flights sorted by time.
+	 */
+	public ArrayList<Flight> findDeparting(String from, String to, String weekday, int earliest, int latest) {
+		ArrayList<Flight> flights = new ArrayList<Flight>();
+		HashMap<String, Route> destinations = routes.get(from);
+		Route route = destinations == null ? null : destinations.get(to);
+		if (route == null) {
+			return flights;
+		}
+		List<String> weekdays = weekday.equals(Manager.WEEKDAY_ANY) ? Manager.WEEKDAYS : List.of(weekday);
+		for (String day : weekdays) {
+			ArrayList<Flight> sorted = route.byTime.get(day);
+			if (sorted == null) {
+				continue;
+			}
+			for (int i = firstLeavingAfter(sorted, earliest - 1); i < sorted.size()
+					&& sorted.get(i).getDepartureMinutes() <= latest; i++) {
+				flights.add(sorted.get(i));
+			}
+		}
+		return flights;
+	}
+
+	/**
+	 * Gets the index of the first flight leaving after a time.
+	 */
+	private static int firstLeavingAfter(ArrayList<Flight> sorted, int minutes) {
+		int low = 0;
+		int high = sorted.size();
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (sorted.get(middle).getDepartureMinutes() <= minutes) {
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+		return low;
+	}
+}
@@ -0,0 +1,117 @@
+package sait.frs.manager;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import sait.frs.problemdomain.*;
+
+/**
+ * Number of seats taken on each flight.
+ *
+ * Every active reservation holds one seat on its flight. The counts are
+ * built from the reservations when they are loaded and then changed one
+ * reservation at a time, so checking a flight does not depend on how many
+ * reservations there are.
+ *
+ * Each flight has its own atomic counter. reserve() takes a seat with a
+ * compare-and-set that only succeeds while the flight has seats left, so two
+ * agents booking the last seat cannot both get it, and agents booking
+ * different flights never wait for each other.
+ */
+public class SeatInventory {
+
+	private ConcurrentHashMap<String, AtomicInteger> used = new ConcurrentHashMap<String, AtomicInteger>();
+
+	/**
+	 * Builds the counts from existing reservations.
+	 *
+	 * @param reservations - Reservations to count; inactive ones are skipped
+	 */
+	public SeatInventory(Collection<Reservation> reservations) {
+		for (Reservation reservation : reservations) {
+			if (reservation.isActive()) {
+				take(reservation.getFlightCode());
+			}
+		}
+	}
+
+	/**
+	 * Gets the number of seats taken on a flight.
+	 *
+	 * @param flightCode - Flight code
+	 * @return Number of active reservations for the flight.
+	 */
+	public int getUsed(String flightCode) {
+		AtomicInteger counter = used.get(flightCode);
+		return counter == null ? 0 : counter.get();
+	}
+
+	/**
+	 * Gets the number of seats left on a flight.
+	 *
+	 * @param flight - Flight instance
+	 * @return Number of available seats
+	 */
+	public int getAvailable(Flight flight) {
+		return flight.getSeats() - getUsed(flight.getCode());
+	}
+
+	/**
+	 * Takes a seat on a flight if it has one left.
+	 *
+	 * @param flight - Flight instance
+	 * @return True if a seat was taken, false if the flight is booked up.
+	 */
+	public boolean reserve(Flight flight) {
+		AtomicInteger counter = counter(flight.getCode());
+		while (true) {
+			int taken = counter.get();
+			if (taken >= flight.getSeats()) {
+				return false;
+			}
+			if (counter.compareAndSet(taken, taken + 1)) {
+				return true;
+			}
+		}
+	}
+
+	/**
+	 * Counts one more seat taken on a flight whether or not it has seats left,
+	 * as for reservations already saved.
+	 *
+	 * @param flightCode - Flight code
+	 */
+	public void take(String flightCode) {
+		counter(flightCode).incrementAndGet();
+	}
+
+	/**
+	 * Gives back a seat on a flight.
+	 *
+	 * @param flightCode - Flight code
+	 */
+	public void release(String flightCode) {
+		AtomicInteger counter = used.get(flightCode);
+		if (counter == null) {
+			return;
+		}
+		while (true) {
+			int taken = counter.get();
+			if (taken == 0 || counter.compareAndSet(taken, taken - 1)) {
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Gets the counter of a flight, adding it on first use. Counters are never
+	 * removed so a compare-and-set cannot land on a counter that was dropped.
+	 */
+	private AtomicInteger counter(String flightCode) {
+		AtomicInteger counter = used.get(flightCode);
+		if (counter == null) {
+			counter = used.computeIfAbsent(flightCode, code -> new AtomicInteger());
+		}
+		return counter;
+	}
+}
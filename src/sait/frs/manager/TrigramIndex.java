@@ -0,0 +1,278 @@
+package sait.frs.manager;
+
+import java.util.*;
+import java.util.concurrent.locks.*;
+import sait.frs.exception.*;
+import sait.frs.problemdomain.*;
+
+/**
+ * Inverted index of the three letter sequences in reservation codes, airlines
+ * and traveler names.
+ *
+ * Every reservation gets a number when it is added. For each field, every
+ * trigram of the field's text maps to the sorted numbers of the reservations
+ * containing it. The reservations containing text of three letters or more
+ * are found by intersecting the lists of its trigrams, shortest first, and
+ * the length of the shortest list estimates how many there are. Removed
+ * reservations are only marked and are dropped from the lists when more than
+ * half of the numbers are removed ones.
+ */
+public class TrigramIndex {
+
+	public static final int CODE = 0;
+	public static final int AIRLINE = 1;
+	public static final int NAME = 2;
+	public static final int MIN_LENGTH = 3;
+
+	private List<HashMap<Long, Postings>> postings = List.of(new HashMap<Long, Postings>(),
+			new HashMap<Long, Postings>(), new HashMap<Long, Postings>());
+	private ArrayList<Reservation> reservations = new ArrayList<Reservation>();
+	private IdentityHashMap<Reservation, Integer> numbers = new IdentityHashMap<Reservation, Integer>();
+	private int removed;
+	private ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+	/**
+	 * Sorted reservation numbers containing one trigram.
+	 */
+	private static class Postings {
+
+		private int[] numbers = new int[2];
+		private int size;
+
+		/**
+		 * Adds a number larger than every number in the list.
+		 */
+		void append(int number) {
+			if (size > 0 && numbers[size - 1] == number) {
+				return;
+			}
+			if (size == numbers.length) {
+				numbers = Arrays.copyOf(numbers, size * 2);
+			}
+			numbers[size++] = number;
+		}
+
+		/**
+		 * Adds a number in order.
+		 */
+		void insert(int number) {
+			int at = Arrays.binarySearch(numbers, 0, size, number);
+			if (at >= 0) {
+				return;
+			}
+			at = -at - 1;
+			if (size == numbers.length) {
+				numbers = Arrays.copyOf(numbers, size * 2);
+			}
+			System.arraycopy(numbers, at, numbers, at + 1, size - at);
+			numbers[at] = number;
+			++size;
+		}
+
+		/**
+		 * Removes a number if it is in the list.
+		 */
+		void remove(int number) {
+			int at = Arrays.binarySearch(numbers, 0, size, number);
+			if (at >= 0) {
+				System.arraycopy(numbers, at + 1, numbers, at, size - at - 1);
+				--size;
+			}
+		}
+	}
+
+	/**
+	 * Builds the index.
+	 *
+	 * @param reservations - Reservations to index
+	 */
+	public TrigramIndex(Collection<Reservation> reservations) {
+		for (Reservation reservation : reservations) {
+			addNumbered(reservation);
+		}
+	}
+
+	/**
+	 * Adds a reservation.
+	 *
+	 * @param reservation - Reservation to add
+	 */
+	public void add(Reservation reservation) {
+		lock.writeLock().lock();
+		try {
+			if (!numbers.containsKey(reservation)) {
+				addNumbered(reservation);
+			}
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Removes a reservation.
+	 *
+	 * @param reservation - Reservation to remove
+	 */
+	public void remove(Reservation reservation) {
+		lock.writeLock().lock();
+		try {
+			Integer number = numbers.remove(reservation);
+			if (number != null) {
+				reservations.set(number, null);
+				if (++removed > reservations.size() / 2) {
+					rebuild();
+				}
+			}
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Renames the traveler of a reservation and moves it to the trigrams of the
+	 * new name.
+	 *
+	 * @param reservation - Reservation to rename
+	 * @param name        - New name of traveler
+	 * @param change      - Sets the name of the reservation
+	 */
+	public void rename(Reservation reservation, String name, Runnable change) {
+		lock.writeLock().lock();
+		try {
+			String oldName = reservation.getName();
+			change.run();
+			Integer number = numbers.get(reservation);
+			if (number == null) {
+				return;
+			}
+			for (long trigram : trigrams(oldName)) {
+				Postings list = postings.get(NAME).get(trigram);
+				if (list != null) {
+					list.remove(number);
+					if (list.size == 0) {
+						postings.get(NAME).remove(trigram);
+					}
+				}
+			}
+			for (long trigram : trigrams(name)) {
+				postings.get(NAME).computeIfAbsent(trigram, key -> new Postings()).insert(number);
+			}
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Estimates how many reservations contain some text in a field, as the
+	 * length of the shortest list among the text's trigrams. The real number
+	 * can only be lower.
+	 *
+	 * @param field - CODE, AIRLINE or NAME
+	 * @param text  - Text of three letters or more
+	 * @return Estimated number of reservations.
+	 */
+	public int estimate(int field, String text) {
+		lock.readLock().lock();
+		try {
+			int estimate = Integer.MAX_VALUE;
+			for (long trigram : trigrams(text)) {
+				Postings list = postings.get(field).get(trigram);
+				estimate = Math.min(estimate, list == null ? 0 : list.size);
+			}
+			return estimate;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Gets the reservations having every trigram of some text in a field. They
+	 * may still not contain the text itself, so callers check them.
+	 *
+	 * @param field - CODE, AIRLINE or NAME
+	 * @param text  - Text of three letters or more
+	 * @return ArrayList of the reservations in the order they were added.
+	 */
+	public ArrayList<Reservation> candidates(int field, String text) {
+		lock.readLock().lock();
+		try {
+			ArrayList<Postings> lists = new ArrayList<Postings>();
+			for (long trigram : trigrams(text)) {
+				Postings list = postings.get(field).get(trigram);
+				if (list == null) {
+					return new ArrayList<Reservation>();
+				}
+				lists.add(list);
+			}
+			lists.sort((a, b) -> Integer.compare(a.size, b.size));
+
+			ArrayList<Reservation> found = new ArrayList<Reservation>();
+			Postings shortest = lists.get(0);
+			for (int i = 0; i < shortest.size; i++) {
+				int number = shortest.numbers[i];
+				boolean everywhere = true;
+				for (int j = 1; j < lists.size() && everywhere; j++) {
+					Postings list = lists.get(j);
+					everywhere = Arrays.binarySearch(list.numbers, 0, list.size, number) >= 0;
+				}
+				Reservation reservation = everywhere ? reservations.get(number) : null;
+				if (reservation != null) {
+					found.add(reservation);
+				}
+			}
+			return found;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Numbers a reservation and adds it to the trigrams of its fields.
+	 */
+	private void addNumbered(Reservation reservation) {
+		int number = reservations.size();
+		reservations.add(reservation);
+		numbers.put(reservation, number);
+		String[] texts = { reservation.getCode(), reservation.getAirline(), reservation.getName() };
+		for (int field = 0; field < texts.length; field++) {
+			for (long trigram : trigrams(texts[field])) {
+				postings.get(field).computeIfAbsent(trigram, key -> new Postings()).append(number);
+			}
+		}
+	}
+
+	/**
+	 * Renumbers the reservations that are left.
+	 */
+	private void rebuild() {
+		ArrayList<Reservation> left = new ArrayList<Reservation>(numbers.size());
+		for (Reservation reservation : reservations) {
+			if (reservation != null) {
+				left.add(reservation);
+			}
+		}
+		for (HashMap<Long, Postings> field : postings) {
+			field.clear();
+		}
+		reservations = new ArrayList<Reservation>(left.size());
+		numbers.clear();
+		removed = 0;
+		for (Reservation reservation : left) {
+			addNumbered(reservation);
+		}
+	}
+
+	/**
+	 * Gets the trigrams of a text, each packed into a long.
+	 */
+	private static long[] trigrams(String text) {
+		if (text == null || text.length() < MIN_LENGTH) {
+			return new long[0];
+		}
+		long[] trigrams = new long[text.length() - 2];
+		for (int i = 0; i < trigrams.length; i++) {
+			trigrams[i] = (long) text.charAt(i) << 32 | (long) text.charAt(i + 1) << 16 | text.charAt(i + 2);
+		}
+		return trigrams;
+	}
+}
@@ -0,0 +1,212 @@
+package sait.frs.manager;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.locks.*;
+import sait.frs.problemdomain.*;
+
+/**
+ * Saves reservations to a store on a dedicated writer thread.
+ *
+ * Callers hand a reservation to submit() and get a future that completes once
+ * the store has saved it and synced it to disk. Every reservation waiting
+ * when the writer wakes up is saved as one batch with a single sync. A
+ * reservation that is submitted again while it is still waiting is only
+ * written once, with whatever it holds when the writer gets to it, and one
+ * removed in the meantime is skipped. The queue holds at most capacity
+ * reservations; submit() waits for the writer when it is full.
+ */
+public class WriteBehindQueue {
+
+	private ReservationStore store;
+	private int capacity;
+
+	private LinkedHashMap<Reservation, CompletableFuture<Reservation>> pending = new LinkedHashMap<Reservation, CompletableFuture<Reservation>>();
+	private LinkedHashMap<Reservation, CompletableFuture<Reservation>> writing = new LinkedHashMap<Reservation, CompletableFuture<Reservation>>();
+	private boolean closed;
+
+	/**
+	 * Held by the writer while it writes a batch.
+	 */
+	private ReentrantLock writeLock = new ReentrantLock();
+	private Thread writer;
+
+	/**
+	 * Creates the queue and starts its writer thread.
+	 *
+	 * @param store    - Store the reservations are saved to
+	 * @param capacity - Most reservations waiting to be written
+	 */
+	public WriteBehindQueue(ReservationStore store, int capacity) {
+		this.store = store;
+		this.capacity = capacity;
+
+		writer = new Thread(this::run, "reservation-writer");
+		writer.setDaemon(true);
+		writer.start();
+	}
+
+	/**
+	 * Queues a reservation to be saved. A new reservation is appended to the
+	 * store and a saved one is written over its own record.
+	 *
+	 * @param reservation - Reservation to save
+	 * @return Future completing with the reservation once it is saved.
+	 */
+	public synchronized CompletableFuture<Reservation> submit(Reservation reservation) {
+		boolean interrupted = false;
+		while (pending.size() >= capacity && !closed && !pending.containsKey(reservation)) {
+			try {
+				wait();
+			} catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+
+		// Checked after waiting, since the queue may have closed or another
+		// caller may have queued the same reservation in the meantime.
+		CompletableFuture<Reservation> saved = pending.get(reservation);
+		if (saved != null) {
+			return saved;
+		}
+		saved = new CompletableFuture<Reservation>();
+		if (closed) {
+			saved.completeExceptionally(new IOException("Reservation queue is closed"));
+			return saved;
+		}
+		pending.put(reservation, saved);
+		notifyAll();
+		return saved;
+	}
+
+	/**
+	 * Gets the future of the last submit() of a reservation.
+	 *
+	 * @param reservation - Reservation to check
+	 * @return Future completing once the reservation is saved, already complete
+	 *         if nothing is waiting to be written.
+	 */
+	public synchronized CompletableFuture<Reservation> whenSaved(Reservation reservation) {
+		CompletableFuture<Reservation> saved = pending.get(reservation);
+		if (saved == null) {
+			saved = writing.get(reservation);
+		}
+		return saved != null ? saved : CompletableFuture.completedFuture(reservation);
+	}
+
+	/**
+	 * Drops a queued reservation that no longer needs to be saved, for instance
+	 * because it has been removed from the store. Its future completes as if it
+	 * had been written. Only call this from runExclusive() so that the writer
+	 * cannot be writing it.
+	 *
+	 * @param reservation - Reservation to drop
+	 */
+	public synchronized void discard(Reservation reservation) {
+		CompletableFuture<Reservation> saved = pending.remove(reservation);
+		if (saved != null) {
+			saved.complete(reservation);
+			notifyAll();
+		}
+	}
+
+	/**
+	 * Waits until every queued reservation has been written.
+	 *
+	 * @throws InterruptedException Thrown if the thread is interrupted while
+	 *                              waiting.
+	 */
+	public synchronized void flush() throws InterruptedException {
+		while (!pending.isEmpty() || !writing.isEmpty()) {
+			wait();
+		}
+	}
+
+	/**
+	 * Runs a task while the writer is not writing, such as replacing the whole
+	 * store.
+	 *
+	 * @param task - Task to run
+	 * @return Result of the task.
+	 * @throws Exception Thrown by the task.
+	 */
+	public <T> T runExclusive(Callable<T> task) throws Exception {
+		writeLock.lock();
+		try {
+			return task.call();
+		} finally {
+			writeLock.unlock();
+		}
+	}
+
+	/**
+	 * Writes everything still queued and stops the writer thread.
+	 *
+	 * @throws InterruptedException Thrown if the thread is interrupted while
+	 *                              waiting.
+	 */
+	public void close() throws InterruptedException {
+		synchronized (this) {
+			closed = true;
+			notifyAll();
+		}
+		writer.join();
+	}
+
+	/**
+	 * Writer thread loop. Takes every waiting reservation as one batch, which
+	 * the store saves with a single sync.
+	 */
+	private void run() {
+		while (true) {
+			synchronized (this) {
+				while (pending.isEmpty() && !closed) {
+					try {
+						wait();
+					} catch (InterruptedException e) {
+						return;
+					}
+				}
+				if (pending.isEmpty()) {
+					return;
+				}
+			}
+
+			LinkedHashMap<Reservation, CompletableFuture<Reservation>> batch;
+			IOException failed = null;
+			writeLock.lock();
+			// Take the batch under the lock so runExclusive() never sees a batch half way.
+			synchronized (this) {
+				batch = pending;
+				writing = batch;
+				pending = new LinkedHashMap<Reservation, CompletableFuture<Reservation>>();
+				notifyAll();
+			}
+			try {
+				store.writeBatch(new ArrayList<Reservation>(batch.keySet()));
+			} catch (IOException e) {
+				failed = e;
+			} finally {
+				writeLock.unlock();
+			}
+
+			// The store has synced the whole batch, so every future can complete.
+			for (Map.Entry<Reservation, CompletableFuture<Reservation>> entry : batch.entrySet()) {
+				if (failed == null) {
+					entry.getValue().complete(entry.getKey());
+				} else {
+					entry.getValue().completeExceptionally(failed);
+				}
+			}
+
+			synchronized (this) {
+				writing = new LinkedHashMap<Reservation, CompletableFuture<Reservation>>();
+				notifyAll();
+			}
+		}
+	}
+}
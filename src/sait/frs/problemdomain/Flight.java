@@ -1,23 +1,96 @@
 package sait.frs.problemdomain;
 
+import java.util.*;
+import java.util.concurrent.*;
+
 /**
  * 
  * Represents a Flight.
  * 
+ * Airports, airlines, weekdays and times repeat across the schedule, so a
+ * flight keeps them as small ids into dictionaries shared by every flight and
+ * the getters look the text up again.
+ * 
  * @author Jonghyun Park
  * @version March 22, 2020
  *
  */
 public class Flight {
 
+	private static final FieldDictionary AIRLINES = new FieldDictionary("airlines", 0xFF);
+	private static final FieldDictionary AIRPORTS = new FieldDictionary("airports", 0xFFFF);
+	private static final FieldDictionary WEEKDAYS = new FieldDictionary("weekdays", 0xFF);
+	private static final FieldDictionary TIMES = new FieldDictionary("times", 0xFFFF);
+
 	private String code;
-	private String airlineName;
-	private String from;
-	private String to;
-	private String weekday;
-	private String time;
-	private int seats;
 	private double costPerSeat;
+	private int seats;
+	private short from;
+	private short to;
+	private short time;
+	private short departureMinutes;
+	private byte airlineName;
+	private byte weekday;
+
+	/**
+	 * Distinct values of one field, numbered in the order they are first seen.
+	 * Id 0 stands for null.
+	 */
+	private static class FieldDictionary {
+
+		private String field;
+		private int capacity;
+		private ConcurrentHashMap<String, Integer> ids = new ConcurrentHashMap<String, Integer>();
+		private volatile String[] values = new String[16];
+		private int size = 1;
+
+		FieldDictionary(String field, int capacity) {
+			this.field = field;
+			this.capacity = capacity;
+		}
+
+		/**
+		 * Gets the id of a value, numbering it if it is new.
+		 */
+		int id(String value) {
+			if (value == null) {
+				return 0;
+			}
+			Integer id = ids.get(value);
+			return id != null ? id : add(value);
+		}
+
+		/**
+		 * Gets the id of a value without numbering it.
+		 */
+		int find(String value) {
+			Integer id = ids.get(value);
+			return id != null ? id : -1;
+		}
+
+		private synchronized int add(String value) {
+			Integer id = ids.get(value);
+			if (id != null) {
+				return id;
+			}
+			if (size > capacity) {
+				throw new IllegalStateException(String.format("Error: More than %d distinct %s.", capacity, field));
+			}
+			if (size == values.length) {
+				values = Arrays.copyOf(values, size * 2);
+			}
+			values[size] = value;
+			ids.put(value, size);
+			return size++;
+		}
+
+		/**
+		 * Gets the value of an id.
+		 */
+		String value(int id) {
+			return values[id];
+		}
+	}
 
 	/**
 	 * User-defined constructor for Flight.
@@ -34,11 +107,12 @@ public class Flight {
 	public Flight(String code, String airlineName, String from, String to, String weekday, String time, int seats,
 			double costPerSeat) {
 		this.code = code;
-		this.airlineName = airlineName;
-		this.from = from;
-		this.to = to;
-		this.weekday = weekday;
-		this.time = time;
+		this.airlineName = (byte) AIRLINES.id(airlineName);
+		this.from = (short) AIRPORTS.id(from);
+		this.to = (short) AIRPORTS.id(to);
+		this.weekday = (byte) WEEKDAYS.id(weekday);
+		this.time = (short) TIMES.id(time);
+		this.departureMinutes = (short) parseTime(time);
 		this.seats = seats;
 		this.costPerSeat = costPerSeat;
 	}
@@ -58,7 +132,7 @@ public class Flight {
 	 * @return Name of airline
 	 */
 	public String getAirlineName() {
-		return airlineName;
+		return AIRLINES.value(Byte.toUnsignedInt(airlineName));
 	}
 
 	/**
@@ -67,7 +141,7 @@ public class Flight {
 	 * @return Originating airport
 	 */
 	public String getFrom() {
-		return from;
+		return AIRPORTS.value(Short.toUnsignedInt(from));
 	}
 
 	/**
@@ -76,7 +150,37 @@ public class Flight {
 	 * @return Destination airport
 	 */
 	public String getTo() {
-		return to;
+		return AIRPORTS.value(Short.toUnsignedInt(to));
+	}
+
+	/**
+	 * Gets the id of the originating airport in the airport dictionary shared by
+	 * every flight.
+	 * 
+	 * @return Airport id from 1 to 65535
+	 */
+	public int getFromId() {
+		return Short.toUnsignedInt(from);
+	}
+
+	/**
+	 * Gets the id of the destination airport in the airport dictionary shared by
+	 * every flight.
+	 * 
+	 * @return Airport id from 1 to 65535
+	 */
+	public int getToId() {
+		return Short.toUnsignedInt(to);
+	}
+
+	/**
+	 * Finds the id getFromId and getToId give for an airport.
+	 * 
+	 * @param code - Airport code
+	 * @return Airport id, or -1 if no flight has used the airport.
+	 */
+	public static int findAirportId(String code) {
+		return AIRPORTS.find(code);
 	}
 
 	/**
@@ -85,7 +189,7 @@ public class Flight {
 	 * @return the weekday
 	 */
 	public String getWeekday() {
-		return weekday;
+		return WEEKDAYS.value(Byte.toUnsignedInt(weekday));
 	}
 
 	/**
@@ -94,7 +198,45 @@ public class Flight {
 	 * @return Time flight leaves
 	 */
 	public String getTime() {
-		return time;
+		return TIMES.value(Short.toUnsignedInt(time));
+	}
+
+	/**
+	 * Gets the time the flight leaves as minutes since midnight. The time is
+	 * read once when the flight is created.
+	 * 
+	 * @return Minutes since midnight, or -1 if the time cannot be read
+	 */
+	public int getDepartureMinutes() {
+		return departureMinutes;
+	}
+
+	/**
+	 * Reads a time in 24 hour format, such as 1:15 or 18:45.
+	 * 
+	 * @param time - Time to read
+	 * @return Minutes since midnight, or -1 if the time cannot be read
+	 */
+	public static int parseTime(String time) {
+		int colon = time == null ? -1 : time.indexOf(':');
+		if (colon < 1 || colon > 2 || time.length() != colon + 3) {
+			return -1;
+		}
+		int hours = 0;
+		int minutes = 0;
+		for (int i = 0; i < time.length(); i++) {
+			char digit = time.charAt(i);
+			if (i == colon) {
+				continue;
+			} else if (digit < '0' || digit > '9') {
+				return -1;
+			} else if (i < colon) {
+				hours = hours * 10 + digit - '0';
+			} else {
+				minutes = minutes * 10 + digit - '0';
+			}
+		}
+		return hours < 24 && minutes < 60 ? hours * 60 + minutes : -1;
 	}
 
 	/**
@@ -122,7 +264,7 @@ public class Flight {
 	 */
 	public boolean isDomestic() {
 
-		if (from.startsWith("Y") && to.startsWith("Y")) {
+		if (getFrom().startsWith("Y") && getTo().startsWith("Y")) {
 			return true;
 		} else {
 			return false;
@@ -145,7 +287,7 @@ public class Flight {
 	 */
 	@Override
 	public String toString() {
-		return String.format("%s%s%s%s%s%s%s%s%s%s%s%s%.2f", code, ", From: ", from, ", To: ", to, ", Day: ", weekday,
-				", Time:", time, ", Seat:", seats, ", Cost: ", costPerSeat);
+		return String.format("%s%s%s%s%s%s%s%s%s%s%s%s%.2f", code, ", From: ", getFrom(), ", To: ",
+				getTo(), ", Day: ", getWeekday(), ", Time:", getTime(), ", Seat:", seats, ", Cost: ", costPerSeat);
 	}
 }
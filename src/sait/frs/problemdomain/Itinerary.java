@@ -0,0 +1,79 @@
+package sait.frs.problemdomain;
+
+import java.util.*;
+
+/**
+ * Represents a trip of one or more connecting flights.
+ */
+public class Itinerary {
+
+	private List<Flight> legs;
+	private double cost;
+	private int connectionMinutes;
+
+	/**
+	 * Creates an itinerary.
+	 *
+	 * @param legs              - Flights in the order they are taken
+	 * @param connectionMinutes - Minutes between the departures of consecutive
+	 *                          flights, added up
+	 */
+	public Itinerary(List<Flight> legs, int connectionMinutes) {
+		this.legs = Collections.unmodifiableList(new ArrayList<Flight>(legs));
+		this.connectionMinutes = connectionMinutes;
+		for (Flight leg : legs) {
+			cost += leg.getCostPerSeat();
+		}
+	}
+
+	/**
+	 * Gets the flights in the order they are taken.
+	 *
+	 * @return Unmodifiable List of Flight
+	 */
+	public List<Flight> getLegs() {
+		return legs;
+	}
+
+	/**
+	 * Gets the number of stops between the first and last airport.
+	 *
+	 * @return Number of stops, 0 for a direct flight
+	 */
+	public int getStops() {
+		return legs.size() - 1;
+	}
+
+	/**
+	 * Gets the cost of one seat on every flight.
+	 *
+	 * @return Total cost
+	 */
+	public double getCost() {
+		return cost;
+	}
+
+	/**
+	 * Gets the minutes from the departure of the first flight to the departure
+	 * of the last one.
+	 *
+	 * @return Connection time, 0 for a direct flight
+	 */
+	public int getConnectionMinutes() {
+		return connectionMinutes;
+	}
+
+	/**
+	 * Gets the human readable representation of an itinerary
+	 *
+	 */
+	@Override
+	public String toString() {
+		StringBuilder codes = new StringBuilder(legs.get(0).getFrom());
+		for (Flight leg : legs) {
+			codes.append(String.format(" -%s-> %s", leg.getCode(), leg.getTo()));
+		}
+		return String.format("%s, Stops: %d, Connections: %d:%02d, Cost: %.2f", codes, getStops(),
+				connectionMinutes / 60, connectionMinutes % 60, cost);
+	}
+}
@@ -1,24 +1,87 @@
 package sait.frs.problemdomain;
 
+import java.lang.ref.*;
+import java.nio.charset.*;
 import sait.frs.exception.*;
 
 /**
  * 
  * Represents a Reservation.
  * 
+ * The fields are kept outside the heap in a ReservationArena shared by every
+ * reservation, and the getters decode them from there. A reservation object
+ * only holds the address of its record and its slot. A reservation that is
+ * no longer needed should be released, which frees its record and keeps a
+ * copy on the heap that can only be read. The record of a reservation that
+ * becomes unreachable without being released is freed by a Cleaner.
+ * 
  * @author Jonghyun Park
  * @version March 22, 2020
  *
  */
 public class Reservation {
 
-	private String code;
-	private String flightCode;
-	private String airline;
-	private String name;
-	private String citizenship;
-	private double cost;
-	private boolean active;
+	/**
+	 * Longest name and citizenship, in UTF-8 bytes, that fit in a record of the
+	 * reservation file.
+	 */
+	public static final int MAX_NAME_BYTES = 50;
+	public static final int MAX_CITIZENSHIP_BYTES = 50;
+
+	private static final ReservationArena ARENA = new ReservationArena();
+	private static final Cleaner CLEANER = Cleaner.create();
+
+	/**
+	 * ARENA, or the copy of the record once it has been released.
+	 */
+	private volatile ReservationArena arena = ARENA;
+	private volatile long record;
+	private volatile int slot = -1;
+	private volatile boolean removed;
+	private volatile ReservationOwner owner;
+
+	/**
+	 * Holds the current record for the Cleaner, which frees it once the
+	 * reservation is released or becomes unreachable.
+	 */
+	private final RecordFreer freer = new RecordFreer();
+	private final Cleaner.Cleanable cleanable;
+
+	/**
+	 * Frees a record outside the heap. It must not refer to the reservation, or
+	 * the reservation would never become unreachable.
+	 */
+	private static class RecordFreer implements Runnable {
+
+		private long record;
+
+		@Override
+		public void run() {
+			long stamp = ARENA.lockWrite();
+			try {
+				if (record != 0) {
+					ARENA.free(record);
+					record = 0;
+				}
+			} finally {
+				ARENA.unlockWrite(stamp);
+			}
+		}
+	}
+
+	/**
+	 * Reads one field of a record.
+	 */
+	private interface Field<T> {
+		T get(ReservationArena arena, long record);
+	}
+
+	/**
+	 * Checks one field of a record against a text.
+	 */
+	private interface Test {
+		boolean test(ReservationArena arena, long record, byte[] text);
+	}
 
 	/**
 	 * User-defined constructor for Reservation.
@@ -31,18 +94,22 @@ public class Reservation {
 	 * @param cost
 	 * @param active      - is the reservation active?
 	 * @throws NullFlightException         - Thrown if flight is null
-	 * @throws InvalidNameException        - Thrown if name is null or empty
-	 * @throws InvalidCitizenshipException - Thrown if citizenship is null or empty
+	 * @throws InvalidNameException        - Thrown if name is null, empty or longer than MAX_NAME_BYTES
+	 * @throws InvalidCitizenshipException - Thrown if citizenship is null, empty or longer than
+	 *                                     MAX_CITIZENSHIP_BYTES
 	 */
 	public Reservation(String code, String flightCode, String airline, String name, String citizenship, double cost,
 			boolean active) throws NullFlightException, InvalidNameException, InvalidCitizenshipException {
-		this.code = code;
-		this.flightCode = flightCode;
-		this.airline = airline;
-		this.setName(name);
-		this.setCitizenship(citizenship);
-		this.cost = cost;
-		this.active = active;
+		validateName(name);
+		validateCitizenship(citizenship);
+		long stamp = ARENA.lockWrite();
+		try {
+			this.record = ARENA.write(code, flightCode, airline, name, citizenship, cost, active);
+			freer.record = record;
+		} finally {
+			ARENA.unlockWrite(stamp);
+		}
+		cleanable = CLEANER.register(this, freer);
 	}
 
 	/**
@@ -51,7 +118,7 @@ public class Reservation {
 	 * @return Reservation code
 	 */
 	public String getCode() {
-		return code;
+		return read(ReservationArena::getCode);
 	}
 
 	/**
@@ -60,7 +127,7 @@ public class Reservation {
 	 * @return the flightCode
 	 */
 	public String getFlightCode() {
-		return flightCode;
+		return read(ReservationArena::getFlightCode);
 	}
 
 	/**
@@ -69,7 +136,7 @@ public class Reservation {
 	 * @return Traveler's name
 	 */
 	public String getName() {
-		return name;
+		return read(ReservationArena::getName);
 	}
 
 	/**
@@ -78,7 +145,7 @@ public class Reservation {
 	 * @return the airline
 	 */
 	public String getAirline() {
-		return airline;
+		return read(ReservationArena::getAirline);
 	}
 
 	/**
@@ -87,7 +154,7 @@ public class Reservation {
 	 * @return Traveler's citizenship.
 	 */
 	public String getCitizenship() {
-		return citizenship;
+		return read(ReservationArena::getCitizenship);
 	}
 
 	/**
@@ -96,7 +163,7 @@ public class Reservation {
 	 * @return the cost
 	 */
 	public double getCost() {
-		return cost;
+		return read(ReservationArena::getCost);
 	}
 
 	/**
@@ -105,20 +172,63 @@ public class Reservation {
 	 * @return True if reservation is active.
 	 */
 	public boolean isActive() {
-		return active;
+		return read(ReservationArena::isActive);
+	}
+
+	/**
+	 * Checks if the reservation code contains a text without building the code
+	 * as a String.
+	 * 
+	 * @param text - UTF-8 bytes of the text
+	 * @return True if the code contains the text.
+	 */
+	public boolean codeContains(byte[] text) {
+		return test(ReservationArena::codeContains, text);
 	}
 
 	/**
-	 * Sets the name of the traveler.
+	 * Checks if the name of the traveler contains a text without decoding the
+	 * name.
+	 * 
+	 * @param text - UTF-8 bytes of the text
+	 * @return True if the name contains the text.
+	 */
+	public boolean nameContains(byte[] text) {
+		return test(ReservationArena::nameContains, text);
+	}
+
+	/**
+	 * Checks if the name of the traveler starts with a text without decoding
+	 * the name.
+	 * 
+	 * @param text - UTF-8 bytes of the text
+	 * @return True if the name starts with the text.
+	 */
+	public boolean nameStartsWith(byte[] text) {
+		return test(ReservationArena::nameStartsWith, text);
+	}
+
+	/**
+	 * Sets the name of the traveler, through the owner of the reservation if it
+	 * has one.
 	 * 
 	 * @param name - New name of traveler
-	 * @throws InvalidNameException - Thrown if name is null or empty
+	 * @throws InvalidNameException - Thrown if name is null, empty or longer than MAX_NAME_BYTES
+	 * @throws IllegalStateException Thrown if the reservation has been released
+	 *                               or removed by its owner
 	 */
 	public void setName(String name) throws InvalidNameException {
-		if (name != null && !(name.isEmpty())) {
-			this.name = name;
+		validateName(name);
+		Runnable change = () -> {
+			synchronized (this) {
+				rewrite(name, null);
+			}
+		};
+		ReservationOwner owner = this.owner;
+		if (owner == null) {
+			change.run();
 		} else {
-			throw new InvalidNameException();
+			owner.rename(this, name, change);
 		}
 	}
 
@@ -126,23 +236,239 @@ public class Reservation {
 	 * Sets the citizenship of the traveler
 	 * 
 	 * @param citizenship - New citizenship of traveler
-	 * @throws InvalidCitizenshipException - Thrown if citizenship is null or empty
+	 * @throws InvalidCitizenshipException - Thrown if citizenship is null, empty or longer than
+	 *                                     MAX_CITIZENSHIP_BYTES
+	 * @throws IllegalStateException Thrown if the reservation has been released
 	 */
-	public void setCitizenship(String citizenship) throws InvalidCitizenshipException {
-		if (citizenship != null && !(citizenship.isEmpty())) {
-			this.citizenship = citizenship;
+	public synchronized void setCitizenship(String citizenship) throws InvalidCitizenshipException {
+		validateCitizenship(citizenship);
+		rewrite(null, citizenship);
+	}
+
+	/**
+	 * Sets if the reservation is active or inactive, through the owner of the
+	 * reservation if it has one.
+	 * 
+	 * @param active - True meaning reservation is active
+	 * @throws NoMoreSeatsException  Thrown if the owner has no seat left for the
+	 *                               reservation
+	 * @throws IllegalStateException Thrown if the reservation has been released
+	 *                               or removed by its owner
+	 */
+	public void setActive(boolean active) throws NoMoreSeatsException {
+		Runnable change = () -> {
+			synchronized (this) {
+				checkNotReleased();
+				long stamp = ARENA.lockWrite();
+				try {
+					ARENA.setActive(record, active);
+				} finally {
+					ARENA.unlockWrite(stamp);
+				}
+			}
+		};
+		ReservationOwner owner = this.owner;
+		if (owner == null) {
+			change.run();
 		} else {
-			throw new InvalidCitizenshipException();
+			owner.setActive(this, active, change);
 		}
 	}
 
 	/**
-	 * Sets if the reservation is active or inactive
+	 * Sets the owner that every later change to the name or status goes
+	 * through.
 	 * 
-	 * @param active - True meaning reservation is active
+	 * @param owner - Owner of the reservation
+	 * @throws IllegalStateException Thrown if the reservation already has
+	 *                               another owner
 	 */
-	public void setActive(boolean active) {
-		this.active = active;
+	public synchronized void setOwner(ReservationOwner owner) {
+		if (this.owner != null && this.owner != owner) {
+			throw new IllegalStateException("Reservation " + getCode() + " already has an owner");
+		}
+		this.owner = owner;
+	}
+
+	/**
+	 * Gets the slot of the reservation in the reservation file.
+	 * 
+	 * @return Slot number or -1 if the reservation has not been saved.
+	 */
+	public int getSlot() {
+		return slot;
+	}
+
+	/**
+	 * Sets the slot of the reservation in the reservation file.
+	 * 
+	 * @param slot - Slot number the reservation is saved in
+	 */
+	public void setSlot(int slot) {
+		this.slot = slot;
+	}
+
+	/**
+	 * Gets if the reservation has been removed, for instance because a new
+	 * reservation took over its slot.
+	 * 
+	 * @return True if the reservation can no longer be changed or saved.
+	 */
+	public boolean isRemoved() {
+		return removed;
+	}
+
+	/**
+	 * Marks the reservation as removed and forgets its slot, so that it is never
+	 * saved over the record of whichever reservation has the slot now. Waits for
+	 * a writer holding the reservation. The reservation is released.
+	 */
+	public synchronized void detach() {
+		removed = true;
+		slot = -1;
+		release();
+	}
+
+	/**
+	 * Frees the record of the reservation outside the heap for another
+	 * reservation to use. The reservation keeps a copy of its fields on the
+	 * heap, which can still be read but no longer changed.
+	 */
+	public synchronized void release() {
+		if (arena != ARENA) {
+			return;
+		}
+		long stamp = ARENA.lockWrite();
+		try {
+			arena = ARENA.copy(record);
+			record = 0;
+		} finally {
+			ARENA.unlockWrite(stamp);
+		}
+		cleanable.clean();
+	}
+
+	/**
+	 * Gets the bytes every reservation takes outside the heap.
+	 * 
+	 * @return Bytes reserved for reservation records
+	 */
+	public static long getOffHeapBytes() {
+		return ARENA.getReservedBytes();
+	}
+
+	/**
+	 * Gets the bytes outside the heap of records that have been freed, by a
+	 * new name or citizenship or by a release, and wait to be reused.
+	 * 
+	 * @return Bytes of free records
+	 */
+	public static long getOffHeapFreeBytes() {
+		return ARENA.getFreeBytes();
+	}
+
+	/**
+	 * Writes a new record with a new name or citizenship and frees the old one
+	 * once the reservation points at the new one.
+	 */
+	private void rewrite(String name, String citizenship) {
+		checkNotReleased();
+		long stamp = ARENA.lockWrite();
+		try {
+			long old = record;
+			record = ARENA.rewrite(old, name, citizenship);
+			freer.record = record;
+			ARENA.free(old);
+		} finally {
+			ARENA.unlockWrite(stamp);
+		}
+	}
+
+	/**
+	 * Reads a field without locking, reading again under the read lock if the
+	 * record changed in the meantime.
+	 */
+	private <T> T read(Field<T> field) {
+		long stamp = ARENA.tryOptimisticRead();
+		if (stamp != 0) {
+			try {
+				T value = field.get(arena, record);
+				if (ARENA.validate(stamp)) {
+					return value;
+				}
+			} catch (RuntimeException e) {
+				// A record freed and reused half way through can hold anything.
+				if (ARENA.validate(stamp)) {
+					throw e;
+				}
+			}
+		}
+		stamp = ARENA.lockRead();
+		try {
+			return field.get(arena, record);
+		} finally {
+			ARENA.unlockRead(stamp);
+		}
+	}
+
+	/**
+	 * Checks a field against a text like read() reads it.
+	 */
+	private boolean test(Test test, byte[] text) {
+		long stamp = ARENA.tryOptimisticRead();
+		if (stamp != 0) {
+			try {
+				boolean passed = test.test(arena, record, text);
+				if (ARENA.validate(stamp)) {
+					return passed;
+				}
+			} catch (RuntimeException e) {
+				if (ARENA.validate(stamp)) {
+					throw e;
+				}
+			}
+		}
+		stamp = ARENA.lockRead();
+		try {
+			return test.test(arena, record, text);
+		} finally {
+			ARENA.unlockRead(stamp);
+		}
+	}
+
+	/**
+	 * Checks that the record has not been released.
+	 * 
+	 * @throws IllegalStateException Thrown if the reservation has been released
+	 */
+	private void checkNotReleased() {
+		if (arena != ARENA) {
+			throw new IllegalStateException("Reservation " + getCode() + " has been released");
+		}
+	}
+
+	/**
+	 * Checks a name of traveler.
+	 * 
+	 * @throws InvalidNameException - Thrown if name is null, empty or longer than MAX_NAME_BYTES
+	 */
+	private static void validateName(String name) throws InvalidNameException {
+		if (name == null || name.isEmpty() || name.getBytes(StandardCharsets.UTF_8).length > MAX_NAME_BYTES) {
+			throw new InvalidNameException();
+		}
+	}
+
+	/**
+	 * Checks a citizenship of traveler.
+	 * 
+	 * @throws InvalidCitizenshipException - Thrown if citizenship is null, empty or longer than
+	 *                                     MAX_CITIZENSHIP_BYTES
+	 */
+	private static void validateCitizenship(String citizenship) throws InvalidCitizenshipException {
+		if (citizenship == null || citizenship.isEmpty()
+				|| citizenship.getBytes(StandardCharsets.UTF_8).length > MAX_CITIZENSHIP_BYTES) {
+			throw new InvalidCitizenshipException();
+		}
 	}
 
 	/**
@@ -0,0 +1,519 @@
+package sait.frs.problemdomain;
+
+import java.nio.*;
+import java.nio.charset.*;
+import java.util.*;
+import java.util.concurrent.locks.*;
+
+/**
+ * Reservation records kept outside the Java heap.
+ *
+ * Records are written to direct buffers of CHUNK_SIZE bytes, so the garbage
+ * collector sees one buffer per chunk instead of the strings of every
+ * reservation. A record is addressed by its chunk and position packed into a
+ * long and is laid out as:
+ *
+ * <pre>
+ * flags (1) | code prefix (1) | code number (2) | flight (4) | cost (8)
+ * | name length (2) | name | citizenship length (2) | citizenship
+ * [| code length (2) | code]
+ * </pre>
+ *
+ * A code of one letter and four digits, as Manager generates, is stored as
+ * its letter and number; any other code is stored as text after the
+ * citizenship, or only flagged if it is null. The flight code and airline are
+ * stored as the id of the pair in a dictionary on the heap, which grows with
+ * the schedule rather than with the reservations. Text is length prefixed
+ * UTF-8.
+ *
+ * Only the active flag is changed in place. A new name or citizenship is
+ * written to a new record and the old one is freed. Freed records are kept
+ * on a free list for their size, rounded up to ALIGNMENT bytes, and a new
+ * record takes a free one of its size before any new space.
+ *
+ * Every change is made while holding the write lock of a StampedLock.
+ * Readers do not lock: they read under an optimistic stamp and read again if
+ * a change came in between, since the record may have been freed and reused
+ * half way through.
+ */
+class ReservationArena {
+
+	private static final int CHUNK_SIZE = 4 * 1024 * 1024;
+	private static final int ALIGNMENT = 8;
+	private static final int FLAGS = 0;
+	private static final int CODE_PREFIX = 1;
+	private static final int CODE_NUMBER = 2;
+	private static final int FLIGHT = 4;
+	private static final int COST = 8;
+	private static final int NAME = 16;
+	private static final byte ACTIVE = 1;
+	private static final byte CODE_AS_TEXT = 2;
+	private static final byte NO_CODE = 4;
+	private static final int MAX_TEXT = 0xFFFF;
+
+	/**
+	 * Flight code and airline pairs, shared with the copies made by copy().
+	 */
+	private static HashMap<String, Integer> flightIds = new HashMap<String, Integer>();
+	private static volatile String[][] flights = new String[16][];
+	private static int flightCount;
+
+	private int chunkSize;
+	private boolean direct;
+	private ArrayList<ByteBuffer> chunks = new ArrayList<ByteBuffer>();
+	private volatile ByteBuffer[] readable = new ByteBuffer[0];
+
+	/**
+	 * Free records by rounded size.
+	 */
+	private HashMap<Integer, FreeList> free = new HashMap<Integer, FreeList>();
+	private long freeBytes;
+
+	private StampedLock lock = new StampedLock();
+
+	/**
+	 * Addresses of free records of one size.
+	 */
+	private static class FreeList {
+
+		private long[] records = new long[16];
+		private int count;
+	}
+
+	/**
+	 * Creates an empty arena of direct buffers.
+	 */
+	ReservationArena() {
+		this(CHUNK_SIZE, true);
+	}
+
+	private ReservationArena(int chunkSize, boolean direct) {
+		this.chunkSize = chunkSize;
+		this.direct = direct;
+	}
+
+	/**
+	 * Takes the write lock, which every change needs.
+	 *
+	 * @return Stamp to unlock with.
+	 */
+	long lockWrite() {
+		return lock.writeLock();
+	}
+
+	void unlockWrite(long stamp) {
+		lock.unlockWrite(stamp);
+	}
+
+	/**
+	 * Takes the read lock, for a reader whose optimistic read failed.
+	 *
+	 * @return Stamp to unlock with.
+	 */
+	long lockRead() {
+		return lock.readLock();
+	}
+
+	void unlockRead(long stamp) {
+		lock.unlockRead(stamp);
+	}
+
+	/**
+	 * Starts an optimistic read.
+	 *
+	 * @return Stamp to validate, 0 if a change is being made.
+	 */
+	long tryOptimisticRead() {
+		return lock.tryOptimisticRead();
+	}
+
+	/**
+	 * Checks that no change was made since an optimistic read started.
+	 *
+	 * @param stamp - Stamp of tryOptimisticRead()
+	 * @return True if what was read is consistent.
+	 */
+	boolean validate(long stamp) {
+		return lock.validate(stamp);
+	}
+
+	/**
+	 * Writes a record. Call while holding the write lock.
+	 *
+	 * @return Address of the record.
+	 * @throws IllegalArgumentException Thrown if a text is longer than 65535
+	 *                                  bytes.
+	 */
+	long write(String code, String flightCode, String airline, String name, String citizenship, double cost,
+			boolean active) {
+		byte[] nameBytes = bytes(name);
+		byte[] citizenshipBytes = bytes(citizenship);
+		boolean compact = isCompactCode(code);
+		byte[] codeBytes = compact ? null : bytes(code);
+		int size = NAME + 2 + nameBytes.length + 2 + citizenshipBytes.length + (compact ? 0 : 2 + codeBytes.length);
+		int flight = flightId(flightCode, airline);
+
+		long record = allocate(size);
+		ByteBuffer chunk = chunk(record);
+		int at = position(record);
+		chunk.put(at + FLAGS, (byte) ((active ? ACTIVE : 0) | (compact ? 0 : CODE_AS_TEXT) | (code == null ? NO_CODE : 0)));
+		chunk.put(at + CODE_PREFIX, compact ? (byte) code.charAt(0) : 0);
+		chunk.putShort(at + CODE_NUMBER, compact ? (short) Integer.parseInt(code.substring(1)) : 0);
+		chunk.putInt(at + FLIGHT, flight);
+		chunk.putDouble(at + COST, cost);
+		at = putText(chunk, at + NAME, nameBytes);
+		at = putText(chunk, at, citizenshipBytes);
+		if (!compact) {
+			putText(chunk, at, codeBytes);
+		}
+		return record;
+	}
+
+	/**
+	 * Writes a copy of a record with a new name or citizenship. The old record
+	 * is left for the caller to free once nothing points at it. Call while
+	 * holding the write lock.
+	 *
+	 * @param name        - New name, or null to keep it
+	 * @param citizenship - New citizenship, or null to keep it
+	 * @return Address of the new record.
+	 */
+	long rewrite(long record, String name, String citizenship) {
+		return write(getCode(record), getFlightCode(record), getAirline(record),
+				name != null ? name : getName(record), citizenship != null ? citizenship : getCitizenship(record),
+				getCost(record), isActive(record));
+	}
+
+	/**
+	 * Puts a record on the free list of its size. Call while holding the write
+	 * lock.
+	 */
+	void free(long record) {
+		int size = align(size(record));
+		FreeList list = free.computeIfAbsent(size, key -> new FreeList());
+		if (list.count == list.records.length) {
+			list.records = Arrays.copyOf(list.records, list.count * 2);
+		}
+		list.records[list.count++] = record;
+		freeBytes += size;
+	}
+
+	/**
+	 * Copies a record into an arena of its own on the heap, where it is record
+	 * 0. The copy is only read, so it needs no locking. Call while holding the
+	 * write lock or a read lock.
+	 *
+	 * @return Arena holding the copy.
+	 */
+	ReservationArena copy(long record) {
+		int size = size(record);
+		ReservationArena copy = new ReservationArena(size, false);
+		ByteBuffer chunk = ByteBuffer.allocate(size);
+		chunk.put(0, chunk(record), position(record), size);
+		copy.chunks.add(chunk);
+		copy.readable = new ByteBuffer[] { chunk };
+		return copy;
+	}
+
+	String getCode(long record) {
+		ByteBuffer chunk = chunk(record);
+		int position = position(record);
+		byte flags = chunk.get(position + FLAGS);
+		if ((flags & NO_CODE) != 0) {
+			return null;
+		} else if ((flags & CODE_AS_TEXT) != 0) {
+			return getText(chunk, codeAt(chunk, position));
+		}
+		char prefix = (char) chunk.get(position + CODE_PREFIX);
+		return prefix + Integer.toString(chunk.getShort(position + CODE_NUMBER));
+	}
+
+	String getFlightCode(long record) {
+		return flight(record)[0];
+	}
+
+	String getAirline(long record) {
+		return flight(record)[1];
+	}
+
+	String getName(long record) {
+		return getText(chunk(record), position(record) + NAME);
+	}
+
+	String getCitizenship(long record) {
+		ByteBuffer chunk = chunk(record);
+		return getText(chunk, skipText(chunk, position(record) + NAME));
+	}
+
+	double getCost(long record) {
+		return chunk(record).getDouble(position(record) + COST);
+	}
+
+	boolean isActive(long record) {
+		return (chunk(record).get(position(record) + FLAGS) & ACTIVE) != 0;
+	}
+
+	/**
+	 * Changes the active flag in place. Call while holding the write lock.
+	 */
+	void setActive(long record, boolean active) {
+		ByteBuffer chunk = chunk(record);
+		int at = position(record) + FLAGS;
+		chunk.put(at, (byte) (active ? chunk.get(at) | ACTIVE : chunk.get(at) & ~ACTIVE));
+	}
+
+	/**
+	 * Checks whether the code contains a text, without decoding the code.
+	 *
+	 * @param text - UTF-8 bytes of the text
+	 * @return True if the code contains the text; a null code only contains
+	 *         the empty text.
+	 */
+	boolean codeContains(long record, byte[] text) {
+		ByteBuffer chunk = chunk(record);
+		int position = position(record);
+		byte flags = chunk.get(position + FLAGS);
+		if ((flags & NO_CODE) != 0) {
+			return text.length == 0;
+		} else if ((flags & CODE_AS_TEXT) != 0) {
+			int at = codeAt(chunk, position);
+			return indexOf(chunk, at + 2, Short.toUnsignedInt(chunk.getShort(at)), text) >= 0;
+		}
+		// The letter and four digits, worked out one byte at a time.
+		byte prefix = chunk.get(position + CODE_PREFIX);
+		int number = chunk.getShort(position + CODE_NUMBER);
+		for (int start = 0; start + text.length <= 5; start++) {
+			int i = 0;
+			while (i < text.length && codeByte(prefix, number, start + i) == text[i]) {
+				++i;
+			}
+			if (i == text.length) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Checks whether the name contains a text, without decoding the name.
+	 *
+	 * @param text - UTF-8 bytes of the text
+	 * @return True if the name contains the text.
+	 */
+	boolean nameContains(long record, byte[] text) {
+		ByteBuffer chunk = chunk(record);
+		int at = position(record) + NAME;
+		return indexOf(chunk, at + 2, Short.toUnsignedInt(chunk.getShort(at)), text) >= 0;
+	}
+
+	/**
+	 * Checks whether the name starts with a text, without decoding the name.
+	 *
+	 * @param text - UTF-8 bytes of the text
+	 * @return True if the name starts with the text.
+	 */
+	boolean nameStartsWith(long record, byte[] text) {
+		ByteBuffer chunk = chunk(record);
+		int at = position(record) + NAME;
+		return text.length <= Short.toUnsignedInt(chunk.getShort(at)) && matchesAt(chunk, at + 2, text);
+	}
+
+	/**
+	 * Gets the bytes taken outside the heap.
+	 *
+	 * @return Bytes of every chunk
+	 */
+	long getReservedBytes() {
+		long stamp = lock.readLock();
+		try {
+			long reserved = 0;
+			for (ByteBuffer chunk : chunks) {
+				reserved += chunk.capacity();
+			}
+			return reserved;
+		} finally {
+			lock.unlockRead(stamp);
+		}
+	}
+
+	/**
+	 * Gets the bytes taken by freed records waiting to be reused.
+	 *
+	 * @return Bytes of free records
+	 */
+	long getFreeBytes() {
+		long stamp = lock.readLock();
+		try {
+			return freeBytes;
+		} finally {
+			lock.unlockRead(stamp);
+		}
+	}
+
+	/**
+	 * Finds space for a record, taking a free record of the same rounded size
+	 * if there is one.
+	 */
+	private long allocate(int size) {
+		size = align(size);
+		FreeList list = free.get(size);
+		if (list != null && list.count > 0) {
+			freeBytes -= size;
+			return list.records[--list.count];
+		}
+		ByteBuffer chunk = chunks.isEmpty() ? null : chunks.get(chunks.size() - 1);
+		if (chunk == null || chunk.remaining() < size) {
+			int capacity = Math.max(chunkSize, size);
+			chunk = direct ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity);
+			chunks.add(chunk);
+			readable = chunks.toArray(new ByteBuffer[0]);
+		}
+		int position = chunk.position();
+		chunk.position(position + size);
+		return (long) (chunks.size() - 1) * chunkSize + position;
+	}
+
+	/**
+	 * Checks whether a code is one letter followed by four digits.
+	 */
+	private static boolean isCompactCode(String code) {
+		if (code == null || code.length() != 5 || code.charAt(0) > 0x7F || code.charAt(1) == '0') {
+			return false;
+		}
+		for (int i = 1; i < 5; i++) {
+			if (code.charAt(i) < '0' || code.charAt(i) > '9') {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Gets one byte of a code stored as its letter and number.
+	 */
+	private static byte codeByte(byte prefix, int number, int index) {
+		if (index == 0) {
+			return prefix;
+		}
+		for (int i = index; i < 4; i++) {
+			number /= 10;
+		}
+		return (byte) ('0' + number % 10);
+	}
+
+	/**
+	 * Gets the id of a flight code and airline, numbering the pair if it is new.
+	 */
+	private static synchronized int flightId(String flightCode, String airline) {
+		String key = flightCode + '\n' + airline;
+		Integer id = flightIds.get(key);
+		if (id == null) {
+			String[][] grown = flights;
+			if (flightCount == grown.length) {
+				grown = Arrays.copyOf(grown, flightCount * 2);
+			}
+			grown[flightCount] = new String[] { flightCode, airline };
+			flights = grown;
+			id = flightCount++;
+			flightIds.put(key, id);
+		}
+		return id;
+	}
+
+	private String[] flight(long record) {
+		return flights[chunk(record).getInt(position(record) + FLIGHT)];
+	}
+
+	private int size(long record) {
+		ByteBuffer chunk = chunk(record);
+		int position = position(record);
+		int at = skipText(chunk, skipText(chunk, position + NAME));
+		if ((chunk.get(position + FLAGS) & CODE_AS_TEXT) != 0) {
+			at = skipText(chunk, at);
+		}
+		return at - position;
+	}
+
+	/**
+	 * Gets the position of a code stored as text.
+	 */
+	private static int codeAt(ByteBuffer chunk, int position) {
+		return skipText(chunk, skipText(chunk, position + NAME));
+	}
+
+	private static int align(int size) {
+		return (size + ALIGNMENT - 1) / ALIGNMENT * ALIGNMENT;
+	}
+
+	private ByteBuffer chunk(long record) {
+		return readable[(int) (record / chunkSize)];
+	}
+
+	private int position(long record) {
+		return (int) (record % chunkSize);
+	}
+
+	/**
+	 * Encodes a text, which may be null, as UTF-8.
+	 */
+	private static byte[] bytes(String text) {
+		byte[] bytes = text == null ? new byte[0] : text.getBytes(StandardCharsets.UTF_8);
+		if (bytes.length > MAX_TEXT) {
+			throw new IllegalArgumentException(
+					String.format("Error: Reservation text is %d bytes, more than %d.", bytes.length, MAX_TEXT));
+		}
+		return bytes;
+	}
+
+	/**
+	 * Writes a length prefixed text.
+	 *
+	 * @return Position after the text.
+	 */
+	private static int putText(ByteBuffer chunk, int at, byte[] bytes) {
+		chunk.putShort(at, (short) bytes.length);
+		chunk.put(at + 2, bytes);
+		return at + 2 + bytes.length;
+	}
+
+	/**
+	 * Gets the position after a length prefixed text.
+	 */
+	private static int skipText(ByteBuffer chunk, int at) {
+		return at + 2 + Short.toUnsignedInt(chunk.getShort(at));
+	}
+
+	private static String getText(ByteBuffer chunk, int at) {
+		byte[] bytes = new byte[Short.toUnsignedInt(chunk.getShort(at))];
+		chunk.get(at + 2, bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Finds a text in length bytes of a chunk. UTF-8 never has a character
+	 * start inside another one, so this finds what String.indexOf would.
+	 *
+	 * @return Offset of the text from start, or -1 if it is not there.
+	 */
+	private static int indexOf(ByteBuffer chunk, int start, int length, byte[] text) {
+		if (text.length == 0) {
+			return 0;
+		}
+		byte first = text[0];
+		for (int offset = 0; offset + text.length <= length; offset++) {
+			if (chunk.get(start + offset) == first && matchesAt(chunk, start + offset, text)) {
+				return offset;
+			}
+		}
+		return -1;
+	}
+
+	private static boolean matchesAt(ByteBuffer chunk, int at, byte[] text) {
+		for (int i = 0; i < text.length; i++) {
+			if (chunk.get(at + i) != text[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+}
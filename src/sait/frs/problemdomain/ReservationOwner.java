@@ -0,0 +1,34 @@
+package sait.frs.problemdomain;
+
+import sait.frs.exception.*;
+
+/**
+ * Holds reservations and keeps track of them, for instance in search indexes
+ * and seat counts. Once a reservation has an owner, every change to its name
+ * or status goes through the owner, so the owner is never out of date however
+ * the reservation is changed.
+ */
+public interface ReservationOwner {
+
+	/**
+	 * Renames the traveler of a reservation. The owner runs change, which sets
+	 * the name, and updates whatever it keeps by name at the same time.
+	 *
+	 * @param reservation - Reservation being renamed
+	 * @param name        - New name of traveler, already validated
+	 * @param change      - Sets the name of the reservation
+	 */
+	void rename(Reservation reservation, String name, Runnable change);
+
+	/**
+	 * Makes a reservation active or inactive. The owner runs change, which sets
+	 * the status, unless it refuses the change.
+	 *
+	 * @param reservation - Reservation being changed
+	 * @param active      - True if the reservation becomes active
+	 * @param change      - Sets the status of the reservation
+	 * @throws NoMoreSeatsException Thrown if the reservation is made active on a
+	 *                              flight that is booked up
+	 */
+	void setActive(Reservation reservation, boolean active, Runnable change) throws NoMoreSeatsException;
+}
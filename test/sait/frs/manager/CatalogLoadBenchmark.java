@@ -0,0 +1,101 @@
+package sait.frs.manager;
+
+import java.util.*;
+import java.util.concurrent.*;
+import sait.frs.problemdomain.*;
+
+/**
+ * Benchmark of compiling the flight catalog with flights.csv parsed serially
+ * and in parallel.
+ *
+ * Each round compiles the catalog once per mode, alternating which mode goes
+ * first, after a few rounds to warm up. The fastest and median times of each
+ * mode are printed, and the two modes must produce the same flights in the
+ * same order.
+ *
+ * Run with the classes of src and test on the class path. The files default
+ * to those in res, which are too small to measure, so pass a large schedule:
+ *
+ * <pre>
+ * java -cp bin:test-bin sait.frs.manager.CatalogLoadBenchmark [flights.csv airports.csv [rounds]]
+ * </pre>
+ *
+ * The parallel mode uses the common ForkJoinPool, whose size is set with
+ * -Djava.util.concurrent.ForkJoinPool.common.parallelism.
+ */
+public class CatalogLoadBenchmark {
+
+	private static final int WARMUP_ROUNDS = 2;
+	private static final int DEFAULT_ROUNDS = 5;
+
+	public static void main(String[] args) throws Exception {
+		String flightsPath = args.length > 1 ? args[0] : "res/flights.csv";
+		String airportsPath = args.length > 1 ? args[1] : "res/airports.csv";
+		int rounds = args.length > 2 ? Integer.parseInt(args[2]) : DEFAULT_ROUNDS;
+
+		System.out.printf("%s, %d cores, common pool parallelism %d%n", flightsPath,
+				Runtime.getRuntime().availableProcessors(), ForkJoinPool.getCommonPoolParallelism());
+
+		long[] serial = new long[rounds];
+		long[] parallel = new long[rounds];
+		List<Flight> serialFlights = null;
+		List<Flight> parallelFlights = null;
+		for (int round = -WARMUP_ROUNDS; round < rounds; round++) {
+			for (int mode = 0; mode < 2; mode++) {
+				boolean inParallel = (round + mode) % 2 != 0;
+				long started = System.nanoTime();
+				List<Flight> flights = FlightCatalog.compile(flightsPath, airportsPath, inParallel).getFlights();
+				long elapsed = System.nanoTime() - started;
+				if (inParallel) {
+					parallelFlights = flights;
+				} else {
+					serialFlights = flights;
+				}
+				if (round >= 0) {
+					(inParallel ? parallel : serial)[round] = elapsed;
+				}
+			}
+		}
+
+		report("serial", serial, serialFlights.size());
+		report("parallel", parallel, parallelFlights.size());
+		if (!sameFlights(serialFlights, parallelFlights)) {
+			System.out.println("FAIL: the modes parsed different flights");
+			System.exit(1);
+		}
+		System.out.printf("parallel/serial median: %.2f%n", (double) median(parallel) / median(serial));
+	}
+
+	/**
+	 * Prints the fastest and median times of one mode.
+	 */
+	private static void report(String mode, long[] times, int flights) {
+		System.out.printf("%-8s %d flights, fastest %.1f ms, median %.1f ms%n", mode, flights,
+				Arrays.stream(times).min().getAsLong() / 1e6, median(times) / 1e6);
+	}
+
+	private static long median(long[] times) {
+		long[] sorted = times.clone();
+		Arrays.sort(sorted);
+		return sorted[sorted.length / 2];
+	}
+
+	/**
+	 * Checks that two lists hold the same flights in the same order.
+	 */
+	private static boolean sameFlights(List<Flight> a, List<Flight> b) {
+		if (a.size() != b.size()) {
+			return false;
+		}
+		for (int i = 0; i < a.size(); i++) {
+			Flight x = a.get(i);
+			Flight y = b.get(i);
+			if (!x.getCode().equals(y.getCode()) || !x.getFrom().equals(y.getFrom()) || !x.getTo().equals(y.getTo())
+					|| !x.getWeekday().equals(y.getWeekday()) || !x.getTime().equals(y.getTime())
+					|| x.getSeats() != y.getSeats() || x.getCostPerSeat() != y.getCostPerSeat()) {
+				return false;
+			}
+		}
+		return true;
+	}
+}
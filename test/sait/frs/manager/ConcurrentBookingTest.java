@@ -0,0 +1,162 @@
+package sait.frs.manager;
+
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import sait.frs.exception.*;
+import sait.frs.problemdomain.*;
+
+/**
+ * Stress test of concurrent bookings on one flight.
+ *
+ * Many threads book the same flight through Manager.makeReservation until it
+ * is full, then keep booking while others cancel and reinstate reservations.
+ * The seats booked must never exceed the seats of the flight, in memory or in
+ * the reservation file read back afterwards. The reservations and their free
+ * list are saved to temporary files, so the reservations in res are not
+ * touched.
+ *
+ * Run from the project directory, with the classes of src and test on the
+ * class path:
+ *
+ * <pre>
+ * java -cp bin:test-bin sait.frs.manager.ConcurrentBookingTest [threads]
+ * </pre>
+ *
+ * Exits with status 1 if a check fails.
+ */
+public class ConcurrentBookingTest {
+
+	private static final int DEFAULT_THREADS = 32;
+	private static final long CHURN_MILLIS = 3000;
+
+	public static void main(String[] args) throws Exception {
+		int threads = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_THREADS;
+		Path file = Files.createTempFile("reservations", ".bin");
+		Path freeList = Files.createTempFile("reservations", ".free");
+		Files.delete(file);
+		Files.delete(freeList);
+		int failures = 0;
+
+		Manager manager = new Manager(new ReservationFile(file.toString()), freeList.toString());
+		Flight flight = manager.getFlights().get(0);
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		Queue<Reservation> booked = new ConcurrentLinkedQueue<Reservation>();
+		AtomicInteger errors = new AtomicInteger();
+
+		// Everyone books until the flight is full.
+		CountDownLatch start = new CountDownLatch(1);
+		ArrayList<Future<?>> workers = new ArrayList<Future<?>>();
+		for (int t = 0; t < threads; t++) {
+			int thread = t;
+			workers.add(pool.submit(() -> {
+				start.await();
+				for (int i = 0;; i++) {
+					try {
+						booked.add(manager.makeReservation(flight, "Traveler " + thread + "-" + i, "Canadian"));
+					} catch (NoMoreSeatsException e) {
+						return null;
+					} catch (Exception e) {
+						errors.incrementAndGet();
+						e.printStackTrace();
+						return null;
+					}
+				}
+			}));
+		}
+		start.countDown();
+		waitFor(workers);
+		failures += check(booked.size() == flight.getSeats(), "%d of %d seats booked by %d threads", booked.size(),
+				flight.getSeats(), threads);
+
+		// Half the threads cancel and reinstate reservations, the rest keep booking.
+		long end = System.currentTimeMillis() + CHURN_MILLIS;
+		ArrayList<Reservation> all = new ArrayList<Reservation>(booked);
+		workers.clear();
+		for (int t = 0; t < threads; t++) {
+			boolean toggles = t % 2 == 0;
+			int thread = t;
+			workers.add(pool.submit(() -> {
+				Random random = new Random(thread);
+				for (int i = 0; System.currentTimeMillis() < end; i++) {
+					try {
+						if (toggles) {
+							Reservation reservation;
+							synchronized (all) {
+								reservation = all.get(random.nextInt(all.size()));
+							}
+							manager.setActive(reservation, !reservation.isActive());
+							manager.persist(reservation);
+						} else {
+							Reservation reservation = manager.makeReservation(flight, "Late " + thread + "-" + i,
+									"Canadian");
+							synchronized (all) {
+								all.add(reservation);
+							}
+						}
+					} catch (NoMoreSeatsException e) {
+						// The flight is full, which is what the test is after.
+					} catch (IllegalStateException e) {
+						// Overwritten by a later booking.
+					} catch (Exception e) {
+						errors.incrementAndGet();
+						e.printStackTrace();
+					}
+				}
+				return null;
+			}));
+		}
+		waitFor(workers);
+		pool.shutdown();
+
+		int active = countActive(manager.findReservations(new ReservationQuery("", "", "", null, true)), flight);
+		failures += check(active <= flight.getSeats(), "%d active reservations in memory for %d seats", active,
+				flight.getSeats());
+		manager.close();
+
+		Manager reloaded = new Manager(new ReservationFile(file.toString()), freeList.toString());
+		active = countActive(reloaded.findReservations(new ReservationQuery("", "", "", null, true)), flight);
+		failures += check(active <= flight.getSeats(), "%d active reservations after reload for %d seats", active,
+				flight.getSeats());
+		reloaded.close();
+		failures += check(errors.get() == 0, "%d unexpected errors", errors.get());
+
+		Files.deleteIfExists(file);
+		Files.deleteIfExists(freeList);
+		System.out.println(failures == 0 ? "PASSED" : "FAILED");
+		System.exit(failures == 0 ? 0 : 1);
+	}
+
+	/**
+	 * Waits for every worker, rethrowing what a worker threw.
+	 */
+	private static void waitFor(List<Future<?>> workers) throws Exception {
+		for (Future<?> worker : workers) {
+			worker.get();
+		}
+	}
+
+	/**
+	 * Counts the active reservations of a flight.
+	 */
+	private static int countActive(List<Reservation> reservations, Flight flight) {
+		int active = 0;
+		for (Reservation reservation : reservations) {
+			if (reservation.isActive() && reservation.getFlightCode().equals(flight.getCode())) {
+				++active;
+			}
+		}
+		return active;
+	}
+
+	/**
+	 * Prints the result of one check.
+	 *
+	 * @return 0 if the check passed, 1 if it failed.
+	 */
+	private static int check(boolean passed, String format, Object... values) {
+		System.out.printf("%s: %s%n", passed ? "ok" : "FAIL", String.format(format, values));
+		return passed ? 0 : 1;
+	}
+}